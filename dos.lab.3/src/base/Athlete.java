@@ -39,6 +39,14 @@ public class Athlete extends Printable implements Comparable<Athlete>,
 
 	}
 
+	public Athlete(String name, NationCategories nationality,
+			EventCategories participatingEvent, int score) {
+		this.name = name;
+		this.nationality = nationality;
+		this.event = participatingEvent;
+		this.score = score;
+	}
+
 	/**
 	 * Function randomly increments the athlete's score.
 	 */
@@ -47,6 +55,23 @@ public class Athlete extends Printable implements Comparable<Athlete>,
 		this.score += increment;
 	}
 
+	/**
+	 * Getters and setters for the athlete's name and score.
+	 * 
+	 * @return
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	public int getScore() {
+		return this.score;
+	}
+
+	public void setScore(int score) {
+		this.score = score;
+	}
+
 	/**
 	 * Overridden function allows two athletes to be compared in terms of their
 	 * score.
@@ -65,13 +90,22 @@ public class Athlete extends Printable implements Comparable<Athlete>,
 		return this.nationality;
 	}
 
+	/**
+	 * Returns the event the current athlete participates in.
+	 * 
+	 * @return EventCategories
+	 */
+	public EventCategories getEvent() {
+		return this.event;
+	}
+
 	/**
 	 * Print methods. Print contents is an implementation of the abstract
 	 * inherited functions.
 	 */
 
 	public void printScore() {
-		System.out.println("Last updated: " + this.getTimestamp());
+		System.out.println("Last updated: " + this.getUpdateTime());
 		System.out.printf("Name : %s \t Nationality : %s \t Score : %d. \n",
 				this.name, this.nationality.getCategory(), this.score);
 	}
@@ -87,7 +121,7 @@ public class Athlete extends Printable implements Comparable<Athlete>,
 	 * @param FileWriter
 	 */
 	public void writeToFile(FileWriter writer) throws IOException {
-		writer.write("Last updated: " + this.getTimestamp() + "\n");
+		writer.write("Last updated: " + this.getUpdateTime() + "\n");
 		writer.write(String.format(
 				"Name : %s \t Nationality : %s \t Score : %d. \n", this.name,
 				this.nationality.getCategory(), this.score));
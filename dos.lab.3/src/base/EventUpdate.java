@@ -0,0 +1,149 @@
+package base;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encapsulates an update relayed by Cacophonix to Obelix: either the current
+ * scores of an event or the results of a completed event. An update marked
+ * as write through must also be written to Orgetorix by the receiving Obelix;
+ * otherwise it is only pushed to subscribers.
+ * 
+ * Each update carries the identifier of its source and a sequence number that
+ * increases with every update of that source. Copies and redeliveries of an
+ * update keep its sequence number, so that receivers can discard duplicates
+ * and updates older than one already applied.
+ * 
+ * Each update also carries a version, the hybrid logical clock timestamp of
+ * its creation. Unlike sequence numbers, versions are comparable between
+ * sources, and are used to resolve conflicting writes to the same record.
+ * 
+ * @author sandeep
+ * 
+ */
+public class EventUpdate implements Serializable {
+	private static final long serialVersionUID = -6527105390921843766L;
+
+	private EventCategories eventName;
+	private ArrayList<Athlete> scores;
+	private Event completedEvent;
+	private boolean writeThrough;
+	private String sourceID;
+	private long sequenceNumber;
+	private long version;
+
+	// Book keeping of the relay, not sent to Obelix.
+	private transient long enqueueTime;
+	private transient int attempts;
+
+	private EventUpdate(EventCategories eventName, boolean writeThrough) {
+		this.eventName = eventName;
+		this.writeThrough = writeThrough;
+		this.enqueueTime = System.nanoTime();
+		this.attempts = 0;
+	}
+
+	/**
+	 * Creates an update carrying the current scores of an event.
+	 * 
+	 * @param eventName
+	 * @param scores
+	 * @param writeThrough
+	 * @return EventUpdate
+	 */
+	public static EventUpdate scoreUpdate(EventCategories eventName,
+			List<Athlete> scores, boolean writeThrough) {
+		EventUpdate update = new EventUpdate(eventName, writeThrough);
+		update.scores = new ArrayList<Athlete>(scores);
+		return update;
+	}
+
+	/**
+	 * Creates an update carrying the results of a completed event. Results
+	 * are always written through.
+	 * 
+	 * @param completedEvent
+	 * @return EventUpdate
+	 */
+	public static EventUpdate resultUpdate(Event completedEvent) {
+		EventUpdate update = new EventUpdate(completedEvent.getName(), true);
+		update.completedEvent = completedEvent;
+		return update;
+	}
+
+	/**
+	 * General getters.
+	 */
+	public EventCategories getEventName() {
+		return this.eventName;
+	}
+
+	public boolean isResultUpdate() {
+		return this.completedEvent != null;
+	}
+
+	public List<Athlete> getScores() {
+		return this.scores;
+	}
+
+	public Event getCompletedEvent() {
+		return this.completedEvent;
+	}
+
+	public String getSourceID() {
+		return this.sourceID;
+	}
+
+	public long getSequenceNumber() {
+		return this.sequenceNumber;
+	}
+
+	/**
+	 * Sets the source of the update and its sequence number at that source.
+	 * 
+	 * @param sourceID
+	 * @param sequenceNumber
+	 */
+	public void setSequence(String sourceID, long sequenceNumber) {
+		this.sourceID = sourceID;
+		this.sequenceNumber = sequenceNumber;
+	}
+
+	/**
+	 * @return The hybrid logical clock timestamp of the update, or 0 if it has
+	 *         none.
+	 */
+	public long getVersion() {
+		return this.version;
+	}
+
+	public void setVersion(long version) {
+		this.version = version;
+	}
+
+	public boolean isWriteThrough() {
+		return this.writeThrough;
+	}
+
+	public void setWriteThrough(boolean writeThrough) {
+		this.writeThrough = writeThrough;
+	}
+
+	/**
+	 * @return Time the update was queued for relay, as given by
+	 *         {@link System#nanoTime()}.
+	 */
+	public long getEnqueueTime() {
+		return this.enqueueTime;
+	}
+
+	/**
+	 * Records a failed attempt to relay the update.
+	 * 
+	 * @return The number of failed attempts so far.
+	 */
+	public int incrementAttempts() {
+		return ++this.attempts;
+	}
+}
@@ -2,13 +2,14 @@ package base;
 
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
 import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
 
 import server.CacophonixInterface;
 import util.ServerDetail;
 import util.ServiceComponent;
+import util.TaskExecutors;
+import util.TransportProvider;
 
 /**
  * Class encapsulates the entire Olympic Games.
@@ -27,6 +28,10 @@ public class Games extends ServiceComponent {
 	private String year;
 	private int currentEvent;
 
+	// Runs the simulation of each event.
+	private ExecutorService eventExecutor = TaskExecutors
+			.newTaskExecutor("EventSimulator");
+
 	private static String CACOPHONIX_SERVICE_NAME = "Cacophonix";
 
 	public Games() {
@@ -77,8 +82,7 @@ public class Games extends ServiceComponent {
 	 */
 	public Event simulateNextEvent() {
 		Event currentEvent = events.get(this.currentEvent++);
-		Thread thread = new Thread(currentEvent);
-		thread.start();
+		this.eventExecutor.execute(currentEvent);
 		return currentEvent;
 	}
 
@@ -113,11 +117,11 @@ public class Games extends ServiceComponent {
 		try {
 			ServerDetail cacophonixDetail = game
 					.getServerDetails(CACOPHONIX_SERVICE_NAME);
-			Registry registry = LocateRegistry.getRegistry(
-					cacophonixDetail.getServiceAddress(),
-					cacophonixDetail.getServicePort());
-			final CacophonixInterface stub = (CacophonixInterface) registry
-					.lookup(cacophonixDetail.getServerName());
+			final CacophonixInterface stub = TransportProvider.getTransport()
+					.lookup(cacophonixDetail.getServiceAddress(),
+							cacophonixDetail.getServicePort(),
+							cacophonixDetail.getServerName(),
+							CacophonixInterface.class);
 			for (int i = 0; i < numEvents; i++) {
 				Event simulatedEvent = game.simulateNextEvent();
 				System.err.println("Beginning "
@@ -6,6 +6,8 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 
+import util.HybridLogicalClock;
+
 /**
  * Interface to allow synchronized printing in the client tablet.
  * 
@@ -36,4 +38,15 @@ public abstract class Printable implements Serializable {
 	public Long getTimestamp() {
 		return this.timestamp;
 	}
+
+	/**
+	 * @return The physical time of the timestamp, which is a hybrid logical
+	 *         clock timestamp, in milliseconds.
+	 */
+	public Long getUpdateTime() {
+		if (this.timestamp == null) {
+			return null;
+		}
+		return HybridLogicalClock.getPhysicalTime(this.timestamp);
+	}
 }
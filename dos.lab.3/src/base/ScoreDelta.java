@@ -0,0 +1,60 @@
+package base;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encapsulates the change in scores of an event between two consecutive score
+ * updates. Only the athletes whose score changed are included, identified by
+ * name. Deltas of an event are numbered consecutively, so that a subscriber
+ * can detect a missed delta and ask for the full scores instead.
+ * 
+ * @author sandeep
+ * 
+ */
+public class ScoreDelta implements Serializable {
+	private static final long serialVersionUID = 3920164817254790317L;
+
+	private EventCategories eventName;
+	private long sequenceNumber;
+	private HashMap<String, Integer> scores;
+
+	public ScoreDelta(EventCategories eventName, long sequenceNumber) {
+		this.eventName = eventName;
+		this.sequenceNumber = sequenceNumber;
+		this.scores = new HashMap<String, Integer>();
+	}
+
+	/**
+	 * Getters for event name and sequence number.
+	 * 
+	 * @return
+	 */
+	public EventCategories getEventName() {
+		return this.eventName;
+	}
+
+	public long getSequenceNumber() {
+		return this.sequenceNumber;
+	}
+
+	/**
+	 * Returns the new scores, keyed by athlete name.
+	 * 
+	 * @return Map<String, Integer>
+	 */
+	public Map<String, Integer> getScores() {
+		return this.scores;
+	}
+
+	/**
+	 * Records the new score of an athlete.
+	 * 
+	 * @param athleteName
+	 * @param score
+	 */
+	public void addScore(String athleteName, int score) {
+		this.scores.put(athleteName, score);
+	}
+}
@@ -0,0 +1,24 @@
+package base;
+
+/**
+ * Exception thrown by a server that is rejecting requests because it is
+ * overloaded. The request was not processed and may be retried, preferably
+ * after backing off or against another server.
+ * 
+ * @author aravind
+ * 
+ */
+public class ServerOverloadedException extends OlympicException {
+	private static final long serialVersionUID = -3260513860587384174L;
+
+	public ServerOverloadedException() {
+	}
+
+	public ServerOverloadedException(String message, Exception nestedException) {
+		super(message, nestedException);
+	}
+
+	public ServerOverloadedException(String message) {
+		super(message);
+	}
+}
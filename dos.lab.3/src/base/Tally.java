@@ -32,11 +32,25 @@ public class Tally extends Printable implements Serializable {
 		this.medalTally.put(category, currentCount + 1);
 	}
 
+	/**
+	 * Getters and setters for the number of medals of each type.
+	 * 
+	 * @param category
+	 * @return
+	 */
+	public int getMedalCount(MedalCategories category) {
+		return this.medalTally.get(category);
+	}
+
+	public void setMedalCount(MedalCategories category, int count) {
+		this.medalTally.put(category, count);
+	}
+
 	/**
 	 * Print methods and Printable interface implementation.
 	 */
 	public void printMedalTally() {
-		System.out.println("Last updated: " + this.getTimestamp());
+		System.out.println("Last updated: " + this.getUpdateTime());
 		for (MedalCategories medal : medalTally.keySet()) {
 			System.out.print(medal.getCategory() + " : "
 					+ medalTally.get(medal) + " ");
@@ -49,7 +63,7 @@ public class Tally extends Printable implements Serializable {
 	}
 
 	public void writeToFile(FileWriter writer) throws IOException {
-		writer.write("Last updated: " + this.getTimestamp() + "\n");
+		writer.write("Last updated: " + this.getUpdateTime() + "\n");
 		for (MedalCategories medal : medalTally.keySet()) {
 			writer.write(medal.getCategory() + " : " + medalTally.get(medal)
 					+ " ");
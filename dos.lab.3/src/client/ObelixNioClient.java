@@ -0,0 +1,325 @@
+package client;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import server.ObelixInterface;
+import server.ObelixProtocol;
+import util.TaskExecutors;
+import base.Athlete;
+import base.EventCategories;
+import base.EventUpdate;
+import base.NationCategories;
+import base.Results;
+import base.ServerOverloadedException;
+import base.Tally;
+
+/**
+ * Client for the binary protocol front end of Obelix. Queries are sent as
+ * frames on a single connection per Obelix and may be pipelined by concurrent
+ * callers; a reader thread matches responses to requests by request ID.
+ * Connections are shared by all tablets in the same JVM.
+ * 
+ * Only the query methods of {@link ObelixInterface} are supported; updates,
+ * subscriptions and the lottery draw remain on RMI.
+ * 
+ * @author aravind
+ * 
+ */
+public class ObelixNioClient implements ObelixInterface {
+
+	private static long RESPONSE_TIMEOUT = 10000;
+
+	private static ConcurrentMap<String, ObelixNioClient> connections = new ConcurrentHashMap<String, ObelixNioClient>();
+
+	private String address;
+	private SocketChannel channel;
+	private AtomicInteger requestCounter;
+	private ConcurrentMap<Integer, PendingResponse> pendingResponses;
+	private volatile boolean closed;
+
+	private ObelixNioClient(String address, SocketChannel channel) {
+		this.address = address;
+		this.channel = channel;
+		this.requestCounter = new AtomicInteger();
+		this.pendingResponses = new ConcurrentHashMap<Integer, PendingResponse>();
+	}
+
+	/**
+	 * Returns the shared connection to the front end at the specified
+	 * address, opening one if there is none.
+	 * 
+	 * @param host
+	 * @param port
+	 * @return ObelixNioClient
+	 * @throws IOException
+	 */
+	public static ObelixNioClient connect(String host, int port)
+			throws IOException {
+		String address = host + ":" + port;
+		ObelixNioClient client = connections.get(address);
+		if (client != null && !client.closed) {
+			return client;
+		}
+		synchronized (connections) {
+			client = connections.get(address);
+			if (client == null || client.closed) {
+				SocketChannel channel = SocketChannel
+						.open(new InetSocketAddress(host, port));
+				channel.socket().setTcpNoDelay(true);
+				client = new ObelixNioClient(address, channel);
+				client.startReader();
+				connections.put(address, client);
+			}
+		}
+		return client;
+	}
+
+	private void startReader() {
+		TaskExecutors.startBackgroundTask("BinaryResponseReader-"
+				+ this.address, new ResponseReader(this));
+	}
+
+	@Override
+	public Tally getMedalTally(NationCategories teamName, String clientID)
+			throws RemoteException, ServerOverloadedException {
+		int requestId = this.requestCounter.incrementAndGet();
+		try {
+			return (Tally) this.send(requestId, ObelixProtocol.GET_MEDAL_TALLY,
+					ObelixProtocol.encodeTallyRequest(requestId, teamName,
+							clientID));
+		} catch (IOException e) {
+			throw new RemoteException("Could not encode request.", e);
+		}
+	}
+
+	@Override
+	public Results getResults(EventCategories eventName, String clientID)
+			throws RemoteException, ServerOverloadedException {
+		int requestId = this.requestCounter.incrementAndGet();
+		try {
+			return (Results) this.send(requestId, ObelixProtocol.GET_RESULTS,
+					ObelixProtocol.encodeEventRequest(requestId,
+							ObelixProtocol.GET_RESULTS, eventName, clientID));
+		} catch (IOException e) {
+			throw new RemoteException("Could not encode request.", e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public List<Athlete> getCurrentScores(EventCategories eventName,
+			String clientID) throws RemoteException, ServerOverloadedException {
+		int requestId = this.requestCounter.incrementAndGet();
+		try {
+			return (List<Athlete>) this.send(requestId,
+					ObelixProtocol.GET_CURRENT_SCORES, ObelixProtocol
+							.encodeEventRequest(requestId,
+									ObelixProtocol.GET_CURRENT_SCORES,
+									eventName, clientID));
+		} catch (IOException e) {
+			throw new RemoteException("Could not encode request.", e);
+		}
+	}
+
+	@Override
+	public String getLotteryWinner(String clientID) throws RemoteException,
+			ServerOverloadedException {
+		int requestId = this.requestCounter.incrementAndGet();
+		try {
+			return (String) this.send(requestId,
+					ObelixProtocol.GET_LOTTERY_WINNER,
+					ObelixProtocol.encodeLotteryRequest(requestId, clientID));
+		} catch (IOException e) {
+			throw new RemoteException("Could not encode request.", e);
+		}
+	}
+
+	@Override
+	public void applyUpdates(List<EventUpdate> updates)
+			throws RemoteException {
+		throw new RemoteException(
+				"Updates are not supported over the binary protocol.");
+	}
+
+	@Override
+	public void registerClient(String clientID, String clientHost,
+			EventCategories eventName) throws RemoteException {
+		throw new RemoteException(
+				"Subscriptions are not supported over the binary protocol.");
+	}
+
+	@Override
+	public void unsubscribe(String clientID, EventCategories eventName)
+			throws RemoteException {
+		throw new RemoteException(
+				"Subscriptions are not supported over the binary protocol.");
+	}
+
+	@Override
+	public String conductLottery() throws RemoteException {
+		throw new RemoteException(
+				"The lottery is not supported over the binary protocol.");
+	}
+
+	/**
+	 * Writes a request frame and waits for the matching response.
+	 * 
+	 * @return The decoded result, or null.
+	 * @throws RemoteException
+	 * @throws ServerOverloadedException
+	 */
+	private Object send(int requestId, byte opcode, ByteBuffer frame)
+			throws RemoteException, ServerOverloadedException {
+		PendingResponse response = new PendingResponse();
+		this.pendingResponses.put(requestId, response);
+		// Checked after registering the request, as close fails only the
+		// requests it finds registered.
+		if (this.closed) {
+			this.pendingResponses.remove(requestId);
+			throw new RemoteException("Connection to " + this.address
+					+ " is closed.");
+		}
+		try {
+			synchronized (this.channel) {
+				while (frame.hasRemaining()) {
+					this.channel.write(frame);
+				}
+			}
+			if (!response.latch.await(RESPONSE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+				throw new RemoteException("Request to " + this.address
+						+ " timed out.");
+			}
+		} catch (IOException e) {
+			this.close(e);
+			throw new RemoteException("Request to " + this.address
+					+ " failed.", e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RemoteException("Interrupted while waiting for "
+					+ this.address + ".", e);
+		} finally {
+			this.pendingResponses.remove(requestId);
+		}
+
+		if (response.failure != null) {
+			throw new RemoteException("Request to " + this.address
+					+ " failed.", response.failure);
+		}
+		DataInputStream in = ObelixProtocol.openBody(response.body);
+		try {
+			in.readInt();
+			byte status = in.readByte();
+			switch (status) {
+			case ObelixProtocol.STATUS_OK:
+				return ObelixProtocol.decodeResult(opcode, in);
+			case ObelixProtocol.STATUS_NULL:
+				return null;
+			case ObelixProtocol.STATUS_OVERLOADED:
+				throw new ServerOverloadedException(in.readUTF());
+			default:
+				throw new RemoteException(in.readUTF());
+			}
+		} catch (IOException e) {
+			throw new RemoteException("Malformed response from "
+					+ this.address + ".", e);
+		}
+	}
+
+	/**
+	 * Reads response frames until the connection fails and hands each one to
+	 * the request waiting for it.
+	 */
+	void readResponses() {
+		ByteBuffer header = ByteBuffer.allocate(ObelixProtocol.FRAME_HEADER_LENGTH);
+		try {
+			while (true) {
+				header.clear();
+				this.readFully(header);
+				int length = header.getInt(0);
+				if (length < ObelixProtocol.FRAME_HEADER_LENGTH
+						|| length > ObelixProtocol.MAX_FRAME_LENGTH) {
+					throw new IOException("Invalid frame length " + length
+							+ ".");
+				}
+				ByteBuffer body = ByteBuffer.allocate(length);
+				this.readFully(body);
+				PendingResponse response = this.pendingResponses.get(body
+						.getInt(0));
+				if (response != null) {
+					response.body = body.array();
+					response.latch.countDown();
+				}
+			}
+		} catch (IOException e) {
+			this.close(e);
+		}
+	}
+
+	private void readFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (this.channel.read(buffer) < 0) {
+				throw new IOException("Connection closed by " + this.address
+						+ ".");
+			}
+		}
+	}
+
+	/**
+	 * Closes the connection and fails every request waiting on it.
+	 */
+	private void close(IOException cause) {
+		if (this.closed) {
+			return;
+		}
+		this.closed = true;
+		connections.remove(this.address, this);
+		try {
+			this.channel.close();
+		} catch (IOException e) {
+			// Connection is being discarded anyway.
+		}
+		for (PendingResponse response : this.pendingResponses.values()) {
+			response.failure = cause;
+			response.latch.countDown();
+		}
+	}
+
+	/**
+	 * A request waiting for its response.
+	 */
+	private static class PendingResponse {
+		private CountDownLatch latch = new CountDownLatch(1);
+		private volatile byte[] body;
+		private volatile IOException failure;
+	}
+}
+
+/**
+ * Reads responses for an {@link ObelixNioClient}.
+ * 
+ * @author aravind
+ * 
+ */
+class ResponseReader implements Runnable {
+	private ObelixNioClient client;
+
+	public ResponseReader(ObelixNioClient client) {
+		this.client = client;
+	}
+
+	@Override
+	public void run() {
+		this.client.readResponses();
+	}
+}
@@ -5,27 +5,29 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
-import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 import server.ObelixInterface;
 import util.RegistryService;
 import util.ServerDetail;
 import util.ServiceComponent;
+import util.TaskExecutors;
 import base.Athlete;
 import base.EventCategories;
 import base.NationCategories;
 import base.OlympicException;
 import base.Printable;
 import base.Results;
+import base.ScoreDelta;
+import base.ServerOverloadedException;
 import base.Tally;
 
 /**
@@ -39,6 +41,10 @@ public class Tablet extends ServiceComponent implements TabletInterface {
 	// A local copy of the medal tallies.
 	private Map<NationCategories, Tally> medalTallies;
 
+	// Scores of subscribed events and the sequence number of the last update.
+	private Map<EventCategories, List<Athlete>> subscribedScores;
+	private Map<EventCategories, Long> scoreSequenceNumbers;
+
 	// Writer used to write to files instead of the console.
 	private FileWriter writer = null;
 
@@ -49,11 +55,20 @@ public class Tablet extends ServiceComponent implements TabletInterface {
 	// Used only to test lamport clock synchronization.
 	public static boolean pollTally = true;
 
+	// Send queries over the binary protocol instead of RMI.
+	public static boolean useBinaryProtocol = false;
+
+	// Runs the tally updaters of all tablets in this JVM.
+	private static ExecutorService tallyUpdaters = TaskExecutors
+			.newTaskExecutor("TallyUpdater");
+
 	public Tablet(String serviceFinderHost, int serviceFinderPort) {
 		super(CLIENT_BASE_NAME + UUID.randomUUID().toString(),
 				serviceFinderHost, serviceFinderPort);
 		this.clientID = this.serviceName;
 		this.medalTallies = new HashMap<NationCategories, Tally>();
+		this.subscribedScores = new HashMap<EventCategories, List<Athlete>>();
+		this.scoreSequenceNumbers = new HashMap<EventCategories, Long>();
 	}
 
 	public Tablet(ObelixInterface obelixStub, String serviceFinderHost,
@@ -62,11 +77,14 @@ public class Tablet extends ServiceComponent implements TabletInterface {
 				serviceFinderHost, serviceFinderPort);
 		this.clientID = this.serviceName;
 		this.medalTallies = new HashMap<NationCategories, Tally>();
+		this.subscribedScores = new HashMap<EventCategories, List<Athlete>>();
+		this.scoreSequenceNumbers = new HashMap<EventCategories, Long>();
 		this.obelixStub = obelixStub;
 	}
 
 	public void setObelixStub(ObelixInterface obelixStub) {
 		this.obelixStub = obelixStub;
+		this.obelixQueryStub = obelixStub;
 	}
 
 	/**
@@ -74,18 +92,34 @@ public class Tablet extends ServiceComponent implements TabletInterface {
 	 * identifier.
 	 */
 	private static String OBELIX_SERVER_NAME = "Obelix";
+	private static String OBELIX_BINARY_SERVER_NAME = "ObelixBinary";
 	private static String CLIENT_BASE_NAME = "Client_";
 
 	/**
-	 * The server stub and the client ID(for event subscription).
+	 * Retry policy for requests rejected by an overloaded Obelix.
+	 */
+	private static int OVERLOAD_RETRY_LIMIT = 3;
+	private static long OVERLOAD_BACKOFF = 100;
+
+	/**
+	 * The server stub and the client ID(for event subscription). Queries are
+	 * sent through the query stub, which is either the server stub or a client
+	 * of the binary protocol front end.
 	 */
 	private ObelixInterface obelixStub;
+	private ObelixInterface obelixQueryStub;
+	private ServerDetail obelixQueryDetail;
 	private String clientID;
 
 	/**
-	 * Control Variable to switch between subscribe and query modes.
+	 * Control Variable to switch between subscribe and query modes. Guarded by
+	 * the resume monitor, on which the menu loop waits while subscribed; it
+	 * also gives up waiting once no update has been pushed for a while.
 	 */
 	private volatile boolean resumeMenuLoop = false;
+	private Object resumeMonitor = new Object();
+	private long lastPushTime;
+	private static long SUBSCRIPTION_IDLE_TIMEOUT = 60000;
 
 	/**
 	 * Main method sets up the client tablet. Sets up the server stub for client
@@ -102,6 +136,8 @@ public class Tablet extends ServiceComponent implements TabletInterface {
 				: Integer.parseInt(args[1]);
 		JAVA_RMI_PORT = (args.length < 3) ? DEFAULT_JAVA_RMI_PORT : Integer
 				.parseInt(args[2]);
+		useBinaryProtocol = (args.length >= 4)
+				&& args[3].equalsIgnoreCase("binary");
 		Tablet tabletInstance = deployTablet(SERVICE_FINDER_HOST,
 				SERVICE_FINDER_PORT);
 		if (tabletInstance != null) {
@@ -163,9 +199,9 @@ public class Tablet extends ServiceComponent implements TabletInterface {
 		try {
 			while (true) {
 				// String menuLine =
-				// String.format("1. Get final results.\n2. Get medal tally.\n3. Get current score.\n4. Get Lottery Winner.\n5. Subscribe to updates.");
+				// String.format("1. Get final results.\n2. Get medal tally.\n3. Get current score.\n4. Get Lottery Winner.\n5. Unsubscribe from updates.\n6. Subscribe to updates.");
 				String menuLine = String
-						.format("1. Get final results.\n2. Get medal tally.\n3. Get current score.\n4. Get Lottery Winner.");
+						.format("1. Get final results.\n2. Get medal tally.\n3. Get current score.\n4. Get Lottery Winner.\n5. Unsubscribe from updates.");
 				this.printToConsole(menuLine, null, null);
 				int choice = Integer.parseInt(getInput("Enter choice."));
 				switch (choice) {
@@ -181,7 +217,10 @@ public class Tablet extends ServiceComponent implements TabletInterface {
 				case 4:
 					this.getLotteryWinner();
 					break;
-				// case 5: this.subscribeTo();
+				case 5:
+					this.unsubscribeFrom();
+					break;
+				// case 6: this.subscribeTo();
 				// this.waitToResume();
 				// this.resumeMenuLoop = false; break;
 				default:
@@ -210,36 +249,50 @@ public class Tablet extends ServiceComponent implements TabletInterface {
 		this.setupTabletServer(regService);
 	}
 
+	/**
+	 * Sets up the Obelix server stub. The Obelix is picked from the cached
+	 * lookup of the service and its stub is cached too, so this does not go
+	 * to ServiceFinder or the registry on every request.
+	 * 
+	 * @throws RemoteException
+	 */
 	private void setupObelixStub() throws RemoteException {
 		ServerDetail obelixDetail = this.getServerDetails(OBELIX_SERVER_NAME);
-		ObelixInterface obelixStub = connectToObelix(obelixDetail);
+		if (obelixDetail == null) {
+			throw new RemoteException("No Obelix server is registered.");
+		}
+		ObelixInterface obelixStub = this.getClientStub(obelixDetail,
+				ObelixInterface.class);
 		this.setObelixStub(obelixStub);
+		this.obelixQueryDetail = obelixDetail;
 	}
 
 	/**
-	 * Returns the Server(Obelix) stub after doing the required lookup in the
-	 * RMI Registry and creating the stub.
+	 * Sets up the stub used for queries. When the binary protocol is enabled,
+	 * connects to the binary front end of an Obelix, falling back to RMI if
+	 * none can be reached.
 	 * 
-	 * @param obelixHost
-	 * @return ObelixInterface
+	 * @throws RemoteException
 	 */
-	private static ObelixInterface connectToObelix(ServerDetail obelixDetail) {
-		Registry registry = null;
-		ObelixInterface obelixStub = null;
-
-		try {
-			registry = LocateRegistry.getRegistry(
-					obelixDetail.getServiceAddress(),
-					obelixDetail.getServicePort());
-			obelixStub = (ObelixInterface) registry.lookup(obelixDetail
-					.getServerName());
-		} catch (RemoteException e) {
-			e.printStackTrace();
-		} catch (NotBoundException e) {
-			e.printStackTrace();
+	private void setupObelixQueryStub() throws RemoteException {
+		if (useBinaryProtocol) {
+			ServerDetail frontendDetail = this
+					.getServerDetails(OBELIX_BINARY_SERVER_NAME);
+			if (frontendDetail != null) {
+				try {
+					this.obelixQueryStub = ObelixNioClient.connect(
+							frontendDetail.getServiceAddress(),
+							frontendDetail.getServicePort());
+					this.obelixQueryDetail = frontendDetail;
+					return;
+				} catch (IOException e) {
+					this.invalidateServer(frontendDetail);
+					System.err.println("Binary front end unavailable: "
+							+ e.getMessage());
+				}
+			}
 		}
-
-		return obelixStub;
+		this.setupObelixStub();
 	}
 
 	/**
@@ -250,23 +303,9 @@ public class Tablet extends ServiceComponent implements TabletInterface {
 	 */
 	private void setupTabletServer(RegistryService regService)
 			throws IOException, OlympicException {
-		Registry registry = null;
-		TabletInterface tabletStub = (TabletInterface) UnicastRemoteObject
-				.exportObject(this, 0);
+		this.bindServer(this, JAVA_RMI_PORT);
 		this.register(clientID, regService.getLocalIPAddress(), JAVA_RMI_PORT);
-		try {
-			registry = LocateRegistry.getRegistry(JAVA_RMI_PORT);
-			registry.rebind(this.getServerName(), tabletStub);
-			System.err.println("Registry Service running at : "
-					+ regService.getLocalIPAddress() + ":" + JAVA_RMI_PORT
-					+ ".");
-			System.err.println("Tablet ready.");
-		} catch (RemoteException e) {
-			registry = regService.setupLocalRegistry(JAVA_RMI_PORT);
-//			registry = LocateRegistry.getRegistry(JAVA_RMI_PORT);
-			registry.rebind(this.getServerName(), tabletStub);
-			System.err.println("New Registry Service created. Tablet ready");
-		}
+		System.err.println("Tablet ready.");
 	}
 
 	/**
@@ -294,6 +333,36 @@ public class Tablet extends ServiceComponent implements TabletInterface {
 		}
 	}
 
+	/**
+	 * Cancels the subscription to an event. Takes the Event Name as user input
+	 * from the CLI.
+	 * 
+	 * @throws RemoteException
+	 */
+	private void unsubscribeFrom() throws RemoteException {
+		EventCategories eventName = EventCategories
+				.valueOf(getInput("Event name?"));
+		unsubscribeFrom(eventName);
+	}
+
+	/**
+	 * Cancels the subscription to updates of the specified event.
+	 * 
+	 * @param eventType
+	 * @throws RemoteException
+	 */
+	public void unsubscribeFrom(EventCategories eventType)
+			throws RemoteException {
+		obelixStub.unsubscribe(clientID, eventType);
+		try {
+			printToConsole(
+					"Unsubscribed from " + eventType.getCategory() + ".",
+					null, null);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
 	/**
 	 * Method to retrieve input from user. Synchronized as results should not be
 	 * written into the console while waiting for user input.
@@ -326,16 +395,23 @@ public class Tablet extends ServiceComponent implements TabletInterface {
 	 * 
 	 * @throws RemoteException
 	 */
-	private void getResults() throws RemoteException {
+	private void getResults() throws RemoteException, OlympicException {
 		String eventName = getInput("Event name");
 		EventCategories eventType = EventCategories.valueOf(eventName
 				.toUpperCase());
 		this.getResults(eventType);
 	}
 
-	public void getResults(EventCategories eventType) throws RemoteException {
-		this.setupObelixStub();
-		Results result = obelixStub.getResults(eventType, this.getServerName());
+	public void getResults(final EventCategories eventType)
+			throws RemoteException, OlympicException {
+		this.setupObelixQueryStub();
+		Results result = callObelix(new Callable<Results>() {
+
+			@Override
+			public Results call() throws Exception {
+				return obelixQueryStub.getResults(eventType, getServerName());
+			}
+		});
 		if (result != null) {
 			this.printCurrentResult(eventType, result);
 		} else {
@@ -355,7 +431,7 @@ public class Tablet extends ServiceComponent implements TabletInterface {
 	 * @throws RemoteException
 	 */
 
-	private void getMedalTally() throws RemoteException {
+	private void getMedalTally() throws RemoteException, OlympicException {
 		String teamName = getInput("Team name");
 		NationCategories nation = NationCategories.valueOf(teamName
 				.toUpperCase());
@@ -363,7 +439,7 @@ public class Tablet extends ServiceComponent implements TabletInterface {
 	}
 
 	public void getMedalTally(NationCategories nation) throws RemoteException {
-		this.setupObelixStub();
+		this.setupObelixQueryStub();
 		synchronized (this.medalTallies) {
 			Tally medalTally = this.medalTallies.get(nation);
 			this.printCurrentTally(nation, medalTally);
@@ -374,14 +450,18 @@ public class Tablet extends ServiceComponent implements TabletInterface {
 	 * Request medal tallies for all nations from Obelix.
 	 * 
 	 * @throws RemoteException
+	 * @throws OlympicException
 	 */
-	public void updateMedalTallies() throws RemoteException {
+	public void updateMedalTallies() throws RemoteException, OlympicException {
 		synchronized (this.medalTallies) {
-			for (NationCategories nation : NationCategories.values()) {
-				this.medalTallies.put(
-						nation,
-						this.obelixStub.getMedalTally(nation,
-								this.getServerName()));
+			for (final NationCategories nation : NationCategories.values()) {
+				this.medalTallies.put(nation, callObelix(new Callable<Tally>() {
+
+					@Override
+					public Tally call() throws Exception {
+						return obelixQueryStub.getMedalTally(nation, getServerName());
+					}
+				}));
 			}
 		}
 	}
@@ -390,8 +470,7 @@ public class Tablet extends ServiceComponent implements TabletInterface {
 	 * Setup the tally updater thread.
 	 */
 	public void setupTallyUpdateThread() {
-		Thread thread = new Thread(new TallyUpdater(this), "TallyUpdaterThread");
-		thread.start();
+		tallyUpdaters.execute(new TallyUpdater(this));
 	}
 
 	/**
@@ -401,18 +480,23 @@ public class Tablet extends ServiceComponent implements TabletInterface {
 	 * @throws RemoteException
 	 */
 
-	private void getCurrentScore() throws RemoteException {
+	private void getCurrentScore() throws RemoteException, OlympicException {
 		String eventName = getInput("Event Name");
 		EventCategories eventType = EventCategories.valueOf(eventName
 				.toUpperCase());
 		this.getCurrentScore(eventType);
 	}
 
-	public void getCurrentScore(EventCategories eventType)
-			throws RemoteException {
-		this.setupObelixStub();
-		List<Athlete> scores = this.obelixStub.getCurrentScores(eventType,
-				this.getServerName());
+	public void getCurrentScore(final EventCategories eventType)
+			throws RemoteException, OlympicException {
+		this.setupObelixQueryStub();
+		List<Athlete> scores = callObelix(new Callable<List<Athlete>>() {
+
+			@Override
+			public List<Athlete> call() throws Exception {
+				return obelixQueryStub.getCurrentScores(eventType, getServerName());
+			}
+		});
 		if (scores != null && scores.size() != 0) {
 			printCurrentScore(eventType, scores);
 		} else {
@@ -425,9 +509,15 @@ public class Tablet extends ServiceComponent implements TabletInterface {
 		}
 	}
 
-	public void getLotteryWinner() throws RemoteException {
-		this.setupObelixStub();
-		String winner = this.obelixStub.getLotteryWinner(this.getServerName());
+	public void getLotteryWinner() throws RemoteException, OlympicException {
+		this.setupObelixQueryStub();
+		String winner = callObelix(new Callable<String>() {
+
+			@Override
+			public String call() throws Exception {
+				return obelixQueryStub.getLotteryWinner(getServerName());
+			}
+		});
 		try {
 
 			if (winner != null) {
@@ -451,6 +541,53 @@ public class Tablet extends ServiceComponent implements TabletInterface {
 
 	}
 
+	/**
+	 * Performs a request on Obelix. If Obelix rejects the request because it is
+	 * overloaded, backs off exponentially and retries on a freshly resolved
+	 * Obelix, giving up after a fixed number of attempts. If the request
+	 * fails, the Obelix is invalidated in the lookup cache and the request is
+	 * retried once on another Obelix.
+	 * 
+	 * @param request
+	 * @return The response from Obelix.
+	 * @throws RemoteException
+	 * @throws OlympicException
+	 */
+	private <T> T callObelix(Callable<T> request) throws RemoteException,
+			OlympicException {
+		int attempt = 0;
+		boolean failedOver = false;
+		while (true) {
+			try {
+				return request.call();
+			} catch (ServerOverloadedException e) {
+				if (attempt >= OVERLOAD_RETRY_LIMIT) {
+					throw e;
+				}
+				try {
+					Thread.sleep(OVERLOAD_BACKOFF << attempt++);
+				} catch (InterruptedException i) {
+					Thread.currentThread().interrupt();
+					throw e;
+				}
+				this.setupObelixQueryStub();
+			} catch (RemoteException e) {
+				if (this.obelixQueryDetail != null) {
+					this.invalidateServer(this.obelixQueryDetail);
+				}
+				if (failedOver) {
+					throw e;
+				}
+				failedOver = true;
+				this.setupObelixQueryStub();
+			} catch (OlympicException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new OlympicException("Request to Obelix failed.", e);
+			}
+		}
+	}
+
 	/**
 	 * Pretty prints the results of the specified event to the console.
 	 * 
@@ -505,16 +642,91 @@ public class Tablet extends ServiceComponent implements TabletInterface {
 	}
 
 	/**
-	 * Calls made by the Obelix server for server push mode.
+	 * Calls made by the Obelix server for server push mode. The server calls
+	 * this function with the full scores of a subscribed event. The scores are
+	 * stored, to have later deltas applied to them, and printed to console.
+	 * Pushes may arrive out of order, so scores that are not newer than the
+	 * stored ones are ignored.
 	 */
+	@Override
+	public void updateScores(EventCategories eventName, long sequenceNumber,
+			List<Athlete> scores) throws RemoteException {
+		this.recordPush(false);
+		synchronized (this.subscribedScores) {
+			Long storedSequenceNumber = this.scoreSequenceNumbers.get(eventName);
+			if (storedSequenceNumber != null
+					&& sequenceNumber <= storedSequenceNumber) {
+				return;
+			}
+			List<Athlete> storedScores = copyScores(scores);
+			this.subscribedScores.put(eventName, storedScores);
+			this.scoreSequenceNumbers.put(eventName, sequenceNumber);
+			printCurrentScore(eventName, storedScores);
+		}
+	}
+
 	/**
 	 * The server calls this function when the scores of a subscribed event
-	 * change. When called, the updated scores are printed to console.
+	 * change, with only the scores that changed. When called, the delta is
+	 * applied to the stored scores and the updated scores are printed to
+	 * console. If the delta does not directly follow the last update received,
+	 * it is not applied and the server is asked to send the full scores.
+	 * 
+	 * @return True if the delta was applied, false if the full scores are
+	 *         needed.
 	 */
 	@Override
-	public void updateScores(EventCategories eventName, List<Athlete> scores)
-			throws RemoteException {
-		printCurrentScore(eventName, scores);
+	public boolean updateScoreDelta(ScoreDelta delta) throws RemoteException {
+		this.recordPush(false);
+		EventCategories eventName = delta.getEventName();
+		synchronized (this.subscribedScores) {
+			List<Athlete> scores = this.subscribedScores.get(eventName);
+			Long sequenceNumber = this.scoreSequenceNumbers.get(eventName);
+			if (scores == null || sequenceNumber == null
+					|| delta.getSequenceNumber() != sequenceNumber + 1) {
+				return false;
+			}
+
+			List<Athlete> updatedScores = copyScores(scores);
+			Map<String, Athlete> athletes = new HashMap<String, Athlete>();
+			for (Athlete athlete : updatedScores) {
+				athletes.put(athlete.getName(), athlete);
+			}
+			if (!athletes.keySet().containsAll(delta.getScores().keySet())) {
+				return false;
+			}
+			for (Map.Entry<String, Integer> score : delta.getScores()
+					.entrySet()) {
+				athletes.get(score.getKey()).setScore(score.getValue());
+			}
+			Collections.sort(updatedScores);
+			this.subscribedScores.put(eventName, updatedScores);
+			this.scoreSequenceNumbers.put(eventName, delta.getSequenceNumber());
+			printCurrentScore(eventName, updatedScores);
+		}
+		return true;
+	}
+
+	/**
+	 * Utility function to copy pushed scores. Under an in-process transport
+	 * the pushed athletes are the server's own objects, which must not be
+	 * changed by the tablet.
+	 * 
+	 * @param scores
+	 * @return A list of copies of the athletes.
+	 */
+	private static List<Athlete> copyScores(List<Athlete> scores) {
+		List<Athlete> copies = new ArrayList<Athlete>(scores.size());
+		for (Athlete athlete : scores) {
+			Athlete copy = new Athlete(athlete.getName(),
+					athlete.getNationality(), athlete.getEvent(),
+					athlete.getScore());
+			if (athlete.getTimestamp() != null) {
+				copy.setTimestamp(athlete.getTimestamp());
+			}
+			copies.add(copy);
+		}
+		return copies;
 	}
 
 	/**
@@ -527,7 +739,24 @@ public class Tablet extends ServiceComponent implements TabletInterface {
 	public void updateResults(EventCategories eventName, Results result)
 			throws RemoteException {
 		printCurrentResult(eventName, result);
-		this.resumeMenuLoop = true;
+		this.recordPush(true);
+	}
+
+	/**
+	 * Records that an update has been pushed by the server, waking up the menu
+	 * loop if the subscription is over.
+	 * 
+	 * @param resume
+	 *            True if the menu loop should resume.
+	 */
+	private void recordPush(boolean resume) {
+		synchronized (this.resumeMonitor) {
+			this.lastPushTime = System.currentTimeMillis();
+			if (resume) {
+				this.resumeMenuLoop = true;
+				this.resumeMonitor.notifyAll();
+			}
+		}
 	}
 
 	/**
@@ -578,11 +807,27 @@ public class Tablet extends ServiceComponent implements TabletInterface {
 	/**
 	 * Wait loop entered into when a subscription is registered. Only
 	 * subscription updates are allowed to be printed durung this time. When the
-	 * event is completed, the user is once again shown the menu.
+	 * event is completed, the user is once again shown the menu. If the server
+	 * stops pushing updates, the user is shown the menu after a timeout.
 	 */
 	private void waitToResume() {
-		while (this.resumeMenuLoop == false)
-			;
+		synchronized (this.resumeMonitor) {
+			this.lastPushTime = System.currentTimeMillis();
+			while (!this.resumeMenuLoop) {
+				long idleTime = System.currentTimeMillis() - this.lastPushTime;
+				if (idleTime >= SUBSCRIPTION_IDLE_TIMEOUT) {
+					System.err.println("No updates received. Resuming menu.");
+					return;
+				}
+				try {
+					this.resumeMonitor.wait(SUBSCRIPTION_IDLE_TIMEOUT
+							- idleTime);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
 	}
 
 	public void setOut(String fileName) throws IOException {
@@ -623,6 +868,8 @@ class TallyUpdater implements Runnable {
 				Thread.sleep(updatePeriod);
 			} catch (RemoteException e) {
 				e.printStackTrace();
+			} catch (OlympicException e) {
+				e.printStackTrace();
 			} catch (InterruptedException e) {
 				e.printStackTrace();
 			}
@@ -7,6 +7,7 @@ import java.util.List;
 import base.Athlete;
 import base.EventCategories;
 import base.Results;
+import base.ScoreDelta;
 
 /**
  * Declares the functions exported by Tablet for server-push.
@@ -15,8 +16,10 @@ import base.Results;
  * 
  */
 public interface TabletInterface extends Remote {
-	public void updateScores(EventCategories eventName, List<Athlete> scores)
-			throws RemoteException;
+	public void updateScores(EventCategories eventName, long sequenceNumber,
+			List<Athlete> scores) throws RemoteException;
+
+	public boolean updateScoreDelta(ScoreDelta delta) throws RemoteException;
 
 	public void updateResults(EventCategories eventName, Results result)
 			throws RemoteException;
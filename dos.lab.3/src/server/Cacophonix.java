@@ -1,24 +1,38 @@
 package server;
 
 import java.io.IOException;
-import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
-import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import util.CircuitBreaker;
+import util.HybridLogicalClock;
+import util.MetricsInterface;
+import util.MetricsRegistry;
 import util.RegistryService;
 import util.ServerDetail;
 import util.ServiceComponent;
+import util.TaskExecutors;
 import base.Athlete;
 import base.Event;
+import base.EventCategories;
+import base.EventUpdate;
 import base.OlympicException;
 
 /**
  * Encapsulates the functions of Cacophonix.
  * Receives updates from the Olympic Games and relays them on to 
- * Obelix by singing.
+ * every Obelix by singing.
  * @author sandeep
  *
  */
@@ -26,7 +40,8 @@ import base.OlympicException;
  * @author aravind
  * 
  */
-public class Cacophonix extends ServiceComponent implements CacophonixInterface {
+public class Cacophonix extends ServiceComponent implements
+		CacophonixInterface, MetricsInterface {
 
 	private static String CACOPHONIX_SERVICE_NAME = "Cacophonix";
 	private static String OBELIX_SERVER_NAME = "Obelix";
@@ -37,16 +52,64 @@ public class Cacophonix extends ServiceComponent implements CacophonixInterface
 	// To prevent the server from being garbage collected.
 	private static Cacophonix cacophonixServerInstance;
 
-	private ObelixInterface clientStub;
+	/**
+	 * The Obelix servers updates are relayed to, keyed by server name. Each
+	 * has its own queue, so that a slow Obelix does not delay the others.
+	 */
+	private ConcurrentMap<String, RelayTarget> relayTargets;
+	private static int MAX_RELAY_ATTEMPTS = 5;
+	private static long RELAY_RETRY_INTERVAL = 10;
+	private static long RELAY_ENQUEUE_TIMEOUT = 1000;
+
+	// Sequence number of the last update received from Games.
+	private AtomicLong updateSequenceNumber;
+
+	// Clock used to version the updates received from Games.
+	private HybridLogicalClock hybridClock;
 
 	public Cacophonix(String serviceFinderHost, int serviceFinderPort) {
 		super(CACOPHONIX_SERVICE_NAME, serviceFinderHost, serviceFinderPort);
+		this.relayTargets = new ConcurrentHashMap<String, RelayTarget>();
+		this.updateSequenceNumber = new AtomicLong();
+		this.hybridClock = new HybridLogicalClock();
+		this.registerRelayGauges();
 	}
 
-	public Cacophonix(ObelixInterface clientStub, String serviceFinderHost,
-			int serviceFinderPort) {
-		super(CACOPHONIX_SERVICE_NAME, serviceFinderHost, serviceFinderPort);
-		this.clientStub = clientStub;
+	/**
+	 * Registers gauges reporting the number of Obelix servers and the number
+	 * of updates waiting to be relayed to them.
+	 */
+	private void registerRelayGauges() {
+		this.metrics.registerGauge("relay.targets",
+				new MetricsRegistry.Gauge() {
+					@Override
+					public long getValue() {
+						return relayTargets.size();
+					}
+				});
+		this.metrics.registerGauge("relay.queueDepth",
+				new MetricsRegistry.Gauge() {
+					@Override
+					public long getValue() {
+						long queueDepth = 0;
+						for (RelayTarget target : relayTargets.values()) {
+							queueDepth += target.getQueueDepth();
+						}
+						return queueDepth;
+					}
+				});
+		this.metrics.registerGauge("relay.oldestQueuedAge",
+				new MetricsRegistry.Gauge() {
+					@Override
+					public long getValue() {
+						long oldestQueuedAge = 0;
+						for (RelayTarget target : relayTargets.values()) {
+							oldestQueuedAge = Math.max(oldestQueuedAge,
+									target.getOldestQueuedAge());
+						}
+						return oldestQueuedAge;
+					}
+				});
 	}
 
 	private static Cacophonix getCacophonixInstance() {
@@ -59,29 +122,235 @@ public class Cacophonix extends ServiceComponent implements CacophonixInterface
 
 	/**
 	 * Remote method called by Games when there is an update to the results of
-	 * any event, that is when the event is completed. This in turn causes these
-	 * results to be relayed on to Obelix, whose database is accordingly
-	 * updated.
+	 * any event, that is when the event is completed. The results are queued
+	 * to be relayed on to the primary Obelix, whose database is accordingly
+	 * updated, and the call returns without waiting for the relay.
 	 */
 	public void updateResultsAndTallies(Event simulatedEvent)
 			throws RemoteException {
-		System.err.println("Sending updateResultsAndTallies msg.");
-		if (clientStub != null) {
-			clientStub.updateResultsAndTallies(simulatedEvent);
+		long startTime = System.nanoTime();
+		try {
+			System.err.println("Queueing updateResultsAndTallies msg.");
+			EventUpdate update = EventUpdate.resultUpdate(simulatedEvent);
+			update.setSequence(this.getServerName(),
+					this.updateSequenceNumber.incrementAndGet());
+			update.setVersion(this.hybridClock.now());
+			this.queueWriteThrough(update);
+		} finally {
+			this.metrics.recordLatency("updateResultsAndTallies", startTime);
 		}
 	}
 
 	/**
 	 * Remote method called by Games when there is an update to scores in some
-	 * event. The updates are relayed on to Obelix whose database is accordingly
-	 * updated.
+	 * event. The updates are queued to be relayed on to the primary Obelix
+	 * whose database is accordingly updated, and to every other Obelix so that
+	 * they may push the scores to their subscribers. The call returns without
+	 * waiting for the relay.
 	 */
 	public void updateCurrentScores(Event simulatedEvent,
 			List<Athlete> currentScores) throws RemoteException {
-		System.err.println("Sending updatedCurrentScores msg.");
-		if (clientStub != null) {
-			clientStub.updateCurrentScores(simulatedEvent.getName(),
-					currentScores);
+		long startTime = System.nanoTime();
+		try {
+			System.err.println("Queueing updatedCurrentScores msg.");
+			EventCategories eventName = simulatedEvent.getName();
+			long sequenceNumber = this.updateSequenceNumber.incrementAndGet();
+			long version = this.hybridClock.now();
+			EventUpdate update = EventUpdate.scoreUpdate(eventName,
+					currentScores, true);
+			update.setSequence(this.getServerName(), sequenceNumber);
+			update.setVersion(version);
+			RelayTarget primary = this.queueWriteThrough(update);
+			for (RelayTarget target : this.relayTargets.values()) {
+				if (target == primary) {
+					continue;
+				}
+				EventUpdate push = EventUpdate.scoreUpdate(eventName,
+						currentScores, false);
+				push.setSequence(this.getServerName(), sequenceNumber);
+				push.setVersion(version);
+				if (!target.enqueue(push)) {
+					this.metrics.incrementCounter("relay.dropped");
+				}
+			}
+		} finally {
+			this.metrics.recordLatency("updateCurrentScores", startTime);
+		}
+	}
+
+	/**
+	 * Queues an update received from Games on the primary Obelix. If the
+	 * queues stay full, the update is refused, so that Games is slowed down
+	 * instead of updates being lost silently.
+	 * 
+	 * @param update
+	 * @return The Obelix the update was queued on, or null if there is none.
+	 * @throws RemoteException
+	 */
+	private RelayTarget queueWriteThrough(EventUpdate update)
+			throws RemoteException {
+		long deadline = System.nanoTime()
+				+ TimeUnit.MILLISECONDS.toNanos(RELAY_ENQUEUE_TIMEOUT);
+		while (true) {
+			RelayTarget primary = this.relayToPrimary(update, null);
+			if (primary != null) {
+				return primary;
+			}
+			if (this.relayTargets.isEmpty()) {
+				System.err.println("No Obelix available. Update dropped.");
+				this.metrics.incrementCounter("relay.dropped");
+				return null;
+			}
+			if (System.nanoTime() > deadline) {
+				this.metrics.incrementCounter("relay.rejected");
+				throw new RemoteException("Relay queues are full.");
+			}
+			try {
+				Thread.sleep(RELAY_RETRY_INTERVAL);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RemoteException("Interrupted while queueing update.",
+						e);
+			}
+		}
+	}
+
+	/**
+	 * Queues an update that must be written through to Orgetorix on the
+	 * primary Obelix, which is the Obelix with the lowest server name whose
+	 * circuit is closed.
+	 * 
+	 * @param update
+	 * @param excluded
+	 *            An Obelix that must not be chosen, or null.
+	 * @return The Obelix the update was queued on, or null if there is none or
+	 *         its queue is full.
+	 */
+	RelayTarget relayToPrimary(EventUpdate update, RelayTarget excluded) {
+		if (this.relayTargets.isEmpty()) {
+			this.refreshRelayTargetsQuietly();
+		}
+		RelayTarget primary = null;
+		RelayTarget fallback = null;
+		for (RelayTarget target : this.relayTargets.values()) {
+			if (target == excluded) {
+				continue;
+			}
+			if (fallback == null
+					|| target.getServerName().compareTo(
+							fallback.getServerName()) < 0) {
+				fallback = target;
+			}
+			if (!this.getPeerBreaker(target.getDetail()).isOpen()
+					&& (primary == null || target.getServerName().compareTo(
+							primary.getServerName()) < 0)) {
+				primary = target;
+			}
+		}
+		if (primary == null) {
+			primary = fallback;
+		}
+		if (primary == null || !primary.enqueue(update)) {
+			return null;
+		}
+		return primary;
+	}
+
+	/**
+	 * Called by a relay worker when a batch could not be delivered. Updates
+	 * that must be written through are failed over to another Obelix; pushes
+	 * are dropped, as the next update supersedes them.
+	 * 
+	 * @param target
+	 * @param batch
+	 */
+	void relayFailed(RelayTarget target, List<EventUpdate> batch) {
+		this.metrics.incrementCounter("relay.failed");
+		for (EventUpdate update : batch) {
+			if (!update.isWriteThrough()) {
+				this.metrics.incrementCounter("relay.dropped");
+				continue;
+			}
+			if (update.incrementAttempts() >= MAX_RELAY_ATTEMPTS) {
+				System.err.println("Giving up relaying update after "
+						+ MAX_RELAY_ATTEMPTS + " attempts.");
+				this.metrics.incrementCounter("relay.dropped");
+				continue;
+			}
+			this.metrics.incrementCounter("relay.failover");
+			if (this.relayToPrimary(update, target) == null) {
+				System.err.println("No Obelix available. Update dropped.");
+				this.metrics.incrementCounter("relay.dropped");
+			}
+		}
+	}
+
+	/**
+	 * Records the latency of a batch delivered by a relay worker, and the lag
+	 * of each update in it between being queued and being delivered.
+	 * 
+	 * @param batch
+	 * @param startTime
+	 */
+	void relaySucceeded(List<EventUpdate> batch, long startTime) {
+		this.metrics.recordLatency("relay", startTime);
+		this.metrics.incrementCounter("relay.batches");
+		for (EventUpdate update : batch) {
+			this.metrics.recordLatency("relay.lag", update.getEnqueueTime());
+		}
+	}
+
+	/**
+	 * Synchronizes the relay targets with the Obelix servers registered with
+	 * {@link ServiceFinder}. A worker is started for each new Obelix, and the
+	 * workers of Obelix servers that have gone away are stopped, failing over
+	 * any updates that must still be written through.
+	 * 
+	 * @throws RemoteException
+	 */
+	void refreshRelayTargets() throws RemoteException {
+		List<ServerDetail> members = this.getServersDetails(OBELIX_SERVER_NAME);
+		Set<String> memberNames = new HashSet<String>();
+		for (ServerDetail member : members) {
+			memberNames.add(member.getServerName());
+			if (this.relayTargets.containsKey(member.getServerName())) {
+				continue;
+			}
+			ObelixInterface stub = this.getClientStub(member,
+					ObelixInterface.class);
+			if (stub == null) {
+				continue;
+			}
+			RelayTarget target = new RelayTarget(this, member, stub);
+			if (this.relayTargets.putIfAbsent(member.getServerName(), target) == null) {
+				TaskExecutors.startBackgroundTask(
+						"Relay-" + member.getServerName(), target);
+				System.err.println("Relaying updates to "
+						+ member.getServerName() + ".");
+			}
+		}
+
+		for (RelayTarget target : this.relayTargets.values()) {
+			if (!memberNames.contains(target.getServerName())
+					&& this.relayTargets.remove(target.getServerName(), target)) {
+				System.err.println("Stopped relaying updates to "
+						+ target.getServerName() + ".");
+				for (EventUpdate update : target.stop()) {
+					if (update.isWriteThrough()
+							&& this.relayToPrimary(update, null) == null) {
+						this.metrics.incrementCounter("relay.dropped");
+					}
+				}
+			}
+		}
+	}
+
+	private void refreshRelayTargetsQuietly() {
+		try {
+			this.refreshRelayTargets();
+		} catch (RemoteException e) {
+			System.err.println("Could not refresh Obelix servers: "
+					+ e.getMessage());
 		}
 	}
 
@@ -98,7 +367,8 @@ public class Cacophonix extends ServiceComponent implements CacophonixInterface
 		JAVA_RMI_PORT = (args.length < 3) ? DEFAULT_JAVA_RMI_PORT : Integer
 				.parseInt(args[2]);
 		Cacophonix cacophonixInstance = Cacophonix.getCacophonixInstance();
-		cacophonixInstance.setupClientInstance();
+		cacophonixInstance.refreshRelayTargetsQuietly();
+		cacophonixInstance.setupMembershipRefreshThread();
 		try {
 			RegistryService regService = new RegistryService();
 			System.setProperty(JAVA_RMI_HOSTNAME_PROPERTY,
@@ -119,59 +389,238 @@ public class Cacophonix extends ServiceComponent implements CacophonixInterface
 	 */
 	private void setupServerInstance(RegistryService regService)
 			throws IOException, OlympicException {
-		Registry registry = null;
-		CacophonixInterface serverStub = (CacophonixInterface) UnicastRemoteObject
-				.exportObject(Cacophonix.getCacophonixInstance(), 0);
+		this.bindServer(Cacophonix.getCacophonixInstance(), JAVA_RMI_PORT);
 		this.register(CACOPHONIX_SERVICE_NAME, regService.getLocalIPAddress(),
 				JAVA_RMI_PORT);
+		this.watchService(OBELIX_SERVER_NAME);
+		System.err.println("Cacophonix ready.");
+	}
+
+	/**
+	 * Starts or stops relaying to Obelix servers as soon as they register or
+	 * go away, rather than at the next periodic refresh.
+	 */
+	@Override
+	protected void onMembershipChanged(String serviceName) {
+		if (OBELIX_SERVER_NAME.equals(serviceName)) {
+			this.refreshRelayTargetsQuietly();
+		}
+	}
+
+	/**
+	 * Setup the thread that tracks the Obelix servers updates are relayed to.
+	 */
+	private void setupMembershipRefreshThread() {
+		TaskExecutors.startBackgroundTask("RelayMembershipRefreshThread",
+				new RelayMembershipRefresher(this));
+	}
+
+	/**
+	 * Propagates the conductLottery message to an Obelix. Tries each Obelix in
+	 * turn until one answers.
+	 */
+	@Override
+	public String conductLottery() throws RemoteException {
+		long startTime = System.nanoTime();
 		try {
-			registry = LocateRegistry.getRegistry(JAVA_RMI_PORT);
-			registry.rebind(this.getServerName(), serverStub);
-			System.err.println("Registry Service running at "
-					+ regService.getLocalIPAddress() + ":" + JAVA_RMI_PORT
-					+ ".");
-			System.err.println("Cacophonix ready.");
-		} catch (RemoteException e) {
-			registry = regService.setupLocalRegistry(JAVA_RMI_PORT);
-//			registry = LocateRegistry.getRegistry(JAVA_RMI_PORT);
-			registry.rebind(this.getServerName(), serverStub);
-			System.err
-					.println("New Registry Service created. Cacophonix ready.");
+			if (this.relayTargets.isEmpty()) {
+				this.refreshRelayTargets();
+			}
+			RemoteException failure = new RemoteException(
+					"No Obelix available.");
+			for (RelayTarget target : this.relayTargets.values()) {
+				CircuitBreaker breaker = this.getPeerBreaker(target.getDetail());
+				if (!breaker.allowRequest()) {
+					continue;
+				}
+				try {
+					String winner = target.getStub().conductLottery();
+					breaker.recordSuccess();
+					return winner;
+				} catch (RemoteException e) {
+					breaker.recordFailure();
+					failure = e;
+				}
+			}
+			throw failure;
+		} finally {
+			this.metrics.recordLatency("conductLottery", startTime);
+		}
+	}
+}
+
+/**
+ * Relays queued updates to a single Obelix, in order. Updates are queued in a
+ * bounded queue and sent in batches, with a single call per batch.
+ * 
+ * @author aravind
+ * 
+ */
+class RelayTarget implements Runnable {
+	private static long POLL_INTERVAL = 1000;
+	private static int QUEUE_CAPACITY = 1024;
+	private static int MAX_BATCH_SIZE = 64;
+
+	private Cacophonix cacophonix;
+	private ServerDetail detail;
+	private ObelixInterface stub;
+	private BlockingQueue<EventUpdate> queue;
+	private volatile boolean active;
+
+	public RelayTarget(Cacophonix cacophonix, ServerDetail detail,
+			ObelixInterface stub) {
+		this.cacophonix = cacophonix;
+		this.detail = detail;
+		this.stub = stub;
+		this.queue = new LinkedBlockingQueue<EventUpdate>(QUEUE_CAPACITY);
+		this.active = true;
+	}
+
+	public ServerDetail getDetail() {
+		return this.detail;
+	}
+
+	public String getServerName() {
+		return this.detail.getServerName();
+	}
+
+	public ObelixInterface getStub() {
+		return this.stub;
+	}
+
+	public int getQueueDepth() {
+		return this.queue.size();
+	}
+
+	/**
+	 * @return Time in milliseconds the oldest queued update has been waiting.
+	 */
+	public long getOldestQueuedAge() {
+		EventUpdate oldest = this.queue.peek();
+		if (oldest == null) {
+			return 0;
 		}
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+				- oldest.getEnqueueTime());
 	}
 
 	/**
-	 * Sets up the Obelix client stub by looking up {@link ServiceFinder}. This
-	 * allows Cacophonix to 'sing' any received updates and hence inform Obelix
-	 * of the same.
+	 * Queues an update for relay.
 	 * 
-	 * @return ObelixInterface
+	 * @param update
+	 * @return False if the queue is full.
 	 */
-	private ObelixInterface setupClientInstance() {
-		Registry registry = null;
-		ObelixInterface clientStub = null;
-		try {
-			ServerDetail obelixDetail = this
-					.getServerDetails(OBELIX_SERVER_NAME);
-			registry = LocateRegistry.getRegistry(
-					obelixDetail.getServiceAddress(),
-					obelixDetail.getServicePort());
-			clientStub = (ObelixInterface) registry.lookup(obelixDetail
-					.getServerName());
-			Cacophonix.getCacophonixInstance().clientStub = clientStub;
-		} catch (RemoteException e) {
-			e.printStackTrace();
-		} catch (NotBoundException e) {
-			e.printStackTrace();
+	public boolean enqueue(EventUpdate update) {
+		return this.queue.offer(update);
+	}
+
+	/**
+	 * Stops the worker.
+	 * 
+	 * @return The updates that were still queued.
+	 */
+	public List<EventUpdate> stop() {
+		this.active = false;
+		List<EventUpdate> pending = new ArrayList<EventUpdate>();
+		this.queue.drainTo(pending);
+		return pending;
+	}
+
+	@Override
+	public void run() {
+		while (this.active) {
+			List<EventUpdate> batch = new ArrayList<EventUpdate>();
+			try {
+				EventUpdate first = this.queue.poll(POLL_INTERVAL,
+						TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+			} catch (InterruptedException e) {
+				return;
+			}
+			this.queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+			batch = coalesceScores(batch);
+
+			CircuitBreaker breaker = this.cacophonix.getPeerBreaker(this.detail);
+			if (!breaker.allowRequest()) {
+				this.cacophonix.relayFailed(this, batch);
+				continue;
+			}
+			long startTime = System.nanoTime();
+			try {
+				this.stub.applyUpdates(batch);
+				breaker.recordSuccess();
+				this.cacophonix.relaySucceeded(batch, startTime);
+			} catch (RemoteException e) {
+				breaker.recordFailure();
+				System.err.println("Could not relay updates to "
+						+ this.getServerName() + ": " + e.getMessage());
+				this.cacophonix.relayFailed(this, batch);
+			}
 		}
-		return clientStub;
 	}
 
 	/**
-	 * Propagates the conductLottery message to Obelix.
+	 * Drops score updates that are superseded by a later score update of the
+	 * same event in the batch, as each carries the full scores of the event.
+	 * The later update is written through if any update it supersedes was.
+	 * 
+	 * @param batch
+	 * @return The coalesced batch.
 	 */
+	private static List<EventUpdate> coalesceScores(List<EventUpdate> batch) {
+		Map<EventCategories, EventUpdate> latestScores = new HashMap<EventCategories, EventUpdate>();
+		for (EventUpdate update : batch) {
+			if (!update.isResultUpdate()) {
+				EventUpdate superseded = latestScores.put(
+						update.getEventName(), update);
+				if (superseded != null && superseded.isWriteThrough()) {
+					update.setWriteThrough(true);
+				}
+			}
+		}
+		List<EventUpdate> coalesced = new ArrayList<EventUpdate>(batch.size());
+		for (EventUpdate update : batch) {
+			if (update.isResultUpdate()
+					|| latestScores.get(update.getEventName()) == update) {
+				coalesced.add(update);
+			}
+		}
+		return coalesced;
+	}
+}
+
+/**
+ * Periodically refreshes the Obelix servers Cacophonix relays updates to.
+ * 
+ * @author aravind
+ * 
+ */
+class RelayMembershipRefresher implements Runnable {
+
+	private Cacophonix cacophonix;
+	private static int REFRESH_INTERVAL = 2000;
+
+	public RelayMembershipRefresher(Cacophonix cacophonix) {
+		this.cacophonix = cacophonix;
+	}
+
 	@Override
-	public String conductLottery() throws RemoteException {
-		return clientStub.conductLottery();
+	public void run() {
+		while (true) {
+			try {
+				cacophonix.refreshRelayTargets();
+			} catch (RemoteException e) {
+				e.printStackTrace();
+			}
+
+			try {
+				Thread.sleep(REFRESH_INTERVAL);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
 	}
 }
@@ -3,28 +3,42 @@ package server;
 import java.io.IOException;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
-import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import util.LotteryManager;
 import util.BullyElectedBerkeleySynchronized;
-import util.LamportClock;
+import util.CircuitBreaker;
+import util.HybridLogicalClock;
+import util.ConcurrencyLimiter;
 import util.Lottery;
+import util.MetricsInterface;
+import util.MetricsRegistry;
 import util.RegistryService;
+import util.RequestCoalescer;
 import util.ServerDetail;
+import util.TaskExecutors;
+import util.TransportProvider;
+import util.UpdateSequencer;
 import base.Athlete;
 import base.Event;
 import base.EventCategories;
+import base.EventUpdate;
 import base.NationCategories;
 import base.OlympicException;
 import base.Results;
+import base.ScoreDelta;
+import base.ServerOverloadedException;
 import base.Tally;
 import client.TabletInterface;
 
@@ -39,7 +53,7 @@ import client.TabletInterface;
  * 
  */
 public class Obelix extends BullyElectedBerkeleySynchronized implements
-		LotteryManager, ObelixInterface {
+		LotteryManager, ObelixInterface, MetricsInterface {
 
 	/**
 	 * Various data structures forming Obelix's database for the games.
@@ -49,39 +63,172 @@ public class Obelix extends BullyElectedBerkeleySynchronized implements
 	private Map<EventCategories, ArrayList<Athlete>> scores;
 
 	/**
-	 * Data structures to manage event subscriptions.private
-	 * Map<EventCategories, ArrayList<Athlete>> scores;
+	 * Data structures to manage event subscriptions. Both are concurrent maps,
+	 * so that pushes never contend with subscribers registering.
 	 */
-	private Map<EventCategories, Subscription> subscriptionMap;
-	private Map<String, String> subscriberHostMap;
+	private ConcurrentMap<EventCategories, Subscription> subscriptionMap;
+	private ConcurrentMap<String, String> subscriberHostMap;
+
+	/**
+	 * Tracks push failures per subscriber. Pushes to a subscriber are skipped
+	 * while its circuit is open, and the subscriber is evicted after too many
+	 * consecutive failures.
+	 */
+	private ConcurrentMap<String, CircuitBreaker> subscriberBreakers;
+	private static int PUSH_FAILURE_THRESHOLD = 2;
+	private static int PUSH_EVICTION_THRESHOLD = 5;
+	private static long PUSH_INITIAL_BACKOFF = 1000;
+	private static long PUSH_MAX_BACKOFF = 60000;
+
+	/**
+	 * The scores last pushed for each event, keyed by athlete name, and the
+	 * sequence number of that push. Used to compute score deltas.
+	 */
+	private Map<EventCategories, Map<String, Integer>> pushedScores;
+	private Map<EventCategories, Long> pushSequenceNumbers;
+
+	// Sequence numbers of the relayed score updates already pushed.
+	private UpdateSequencer pushedUpdates;
 
 	// To prevent the server from being garbage collected.
 	private static Obelix obelixServerInstance;
 	private static String OBELIX_SERVICE_NAME = "Obelix";
 	private static String ORGETORIX_SERVICE_NAME = "Orgetorix";
+	private static String OBELIX_BINARY_SERVICE_NAME = "ObelixBinary";
 	private static String JAVA_RMI_HOSTNAME_PROPERTY = "java.rmi.server.hostname";
 	private static String SERVICE_FINDER_HOST;
 	private static int SERVICE_FINDER_PORT;
+	private static int DEFAULT_MAX_CONCURRENT_REQUESTS = 64;
+	private static int MAX_CONCURRENT_REQUESTS = DEFAULT_MAX_CONCURRENT_REQUESTS;
+	private static int MIN_CONCURRENT_REQUESTS = 4;
+	private static long REQUEST_LATENCY_TARGET = 250;
+	private static int BINARY_PORT = 0;
+	private ObelixNioFrontend binaryFrontend;
 	private OrgetorixInterface orgetorixStub;
+	private ServerDetail orgetorixDetail;
 	private Lottery lottery = new Lottery();
 	private boolean lotteryFrozen;
-	private Integer localRequestCounter = 0;
+	private AtomicInteger localRequestCounter = new AtomicInteger();
+
+	/**
+	 * Lottery entries made locally that are yet to be replicated to the other
+	 * Obelix servers, keyed by entry identifier. New entries are buffered
+	 * until the next replication round, which hands them to the backlog of
+	 * each other server; an entry leaves a backlog only once that server has
+	 * received it. Both are guarded by the lock on pendingParticipants.
+	 */
+	private Map<String, String> pendingParticipants;
+	private Map<String, Map<String, String>> peerPendingParticipants;
+
+	/**
+	 * Coalesce identical concurrent queries to Orgetorix, so that a burst of
+	 * requests for the same data results in a single backend call.
+	 */
+	private RequestCoalescer<NationCategories, Tally> tallyRequests;
+	private RequestCoalescer<EventCategories, Results> resultRequests;
+	private RequestCoalescer<EventCategories, List<Athlete>> scoreRequests;
+
+	/**
+	 * Admission control for client requests. Updates from Cacophonix are
+	 * admitted with priority.
+	 */
+	private ConcurrencyLimiter requestLimiter;
 
 	private String lotteryWinner;
 
+	// Runs pushes to subscribers, one task per push.
+	private ExecutorService pushExecutor;
+
 	public Obelix(String serviceFinderHost, int serviceFinderPort) {
 		super(OBELIX_SERVICE_NAME, serviceFinderHost, serviceFinderPort);
 		this.completedEvents = new HashSet<Event>();
 		this.medalTallies = new HashMap<NationCategories, Tally>();
 		this.scores = new HashMap<EventCategories, ArrayList<Athlete>>();
-		this.subscriptionMap = new HashMap<EventCategories, Subscription>();
-		this.subscriberHostMap = new HashMap<String, String>();
+		this.subscriptionMap = new ConcurrentHashMap<EventCategories, Subscription>();
+		this.subscriberHostMap = new ConcurrentHashMap<String, String>();
+		this.subscriberBreakers = new ConcurrentHashMap<String, CircuitBreaker>();
+		this.pushedScores = new HashMap<EventCategories, Map<String, Integer>>();
+		this.pushSequenceNumbers = new HashMap<EventCategories, Long>();
+		this.pendingParticipants = new HashMap<String, String>();
+		this.peerPendingParticipants = new HashMap<String, Map<String, String>>();
+		this.tallyRequests = new RequestCoalescer<NationCategories, Tally>();
+		this.resultRequests = new RequestCoalescer<EventCategories, Results>();
+		this.scoreRequests = new RequestCoalescer<EventCategories, List<Athlete>>();
+		this.requestLimiter = new ConcurrencyLimiter(MAX_CONCURRENT_REQUESTS,
+				MIN_CONCURRENT_REQUESTS, MAX_CONCURRENT_REQUESTS,
+				REQUEST_LATENCY_TARGET);
 		this.lotteryFrozen = false;
 		this.lotteryWinner = null;
+		this.pushExecutor = TaskExecutors.newTaskExecutor("ObelixPush");
+		this.pushedUpdates = new UpdateSequencer();
 
 		for (NationCategories nation : NationCategories.values()) {
 			this.medalTallies.put(nation, new Tally());
 		}
+		this.registerGauges();
+	}
+
+	/**
+	 * Registers the gauges sampled with every metrics snapshot.
+	 */
+	private void registerGauges() {
+		this.metrics.registerGauge("requests.inFlight",
+				new MetricsRegistry.Gauge() {
+
+					@Override
+					public long getValue() {
+						return requestLimiter.getInFlight();
+					}
+				});
+		this.metrics.registerGauge("requests.limit",
+				new MetricsRegistry.Gauge() {
+
+					@Override
+					public long getValue() {
+						return requestLimiter.getLimit();
+					}
+				});
+		this.metrics.registerGauge("requests.rejected",
+				new MetricsRegistry.Gauge() {
+
+					@Override
+					public long getValue() {
+						return requestLimiter.getRejectedCount();
+					}
+				});
+		this.metrics.registerGauge("orgetorix.inFlight",
+				new MetricsRegistry.Gauge() {
+
+					@Override
+					public long getValue() {
+						return tallyRequests.getInFlightCount()
+								+ resultRequests.getInFlightCount()
+								+ scoreRequests.getInFlightCount();
+					}
+				});
+		this.metrics.registerGauge("subscriptions.subscribers",
+				new MetricsRegistry.Gauge() {
+
+					@Override
+					public long getValue() {
+						return subscriberHostMap.size();
+					}
+				});
+		this.metrics.registerGauge("lottery.pendingParticipants",
+				new MetricsRegistry.Gauge() {
+
+					@Override
+					public long getValue() {
+						synchronized (pendingParticipants) {
+							long pending = pendingParticipants.size();
+							for (Map<String, String> peerEntries : peerPendingParticipants
+									.values()) {
+								pending += peerEntries.size();
+							}
+							return pending;
+						}
+					}
+				});
 	}
 
 	/**
@@ -91,21 +238,60 @@ public class Obelix extends BullyElectedBerkeleySynchronized implements
 	 * @throws OlympicException
 	 */
 	private void setupOrgetorixStub() throws OlympicException {
-		Registry registry = null;
 		try {
 			ServerDetail orgetorixDetail = this
 					.getServerDetails(ORGETORIX_SERVICE_NAME);
-			registry = LocateRegistry.getRegistry(
-					orgetorixDetail.getServiceAddress(),
-					orgetorixDetail.getServicePort());
-			OrgetorixInterface orgetorixStub = (OrgetorixInterface) registry
-					.lookup(orgetorixDetail.getServerName());
+			OrgetorixInterface orgetorixStub = this.getClientStub(
+					orgetorixDetail, OrgetorixInterface.class);
+			if (orgetorixStub == null) {
+				throw new OlympicException("Orgetorix is not bound.");
+			}
 			this.orgetorixStub = orgetorixStub;
+			this.orgetorixDetail = orgetorixDetail;
 		} catch (Exception e) {
 			throw new OlympicException("Could not set up Orgetorix Stub.");
 		}
 	}
 
+	/**
+	 * A call to Orgetorix guarded by a circuit breaker. While the circuit is
+	 * open the call fails straight away instead of waiting on an unresponsive
+	 * Orgetorix. A failed call also re-resolves Orgetorix, so that another
+	 * instance is used if one is available.
+	 * 
+	 * @param <T>
+	 */
+	private abstract class OrgetorixRequest<T> implements Callable<T> {
+
+		protected abstract T invoke(OrgetorixInterface stub)
+				throws RemoteException;
+
+		@Override
+		public T call() throws RemoteException {
+			CircuitBreaker breaker = getPeerBreaker(orgetorixDetail);
+			if (!breaker.allowRequest()) {
+				metrics.incrementCounter("orgetorix.rejected");
+				throw new RemoteException("Circuit to "
+						+ orgetorixDetail.getServerName() + " is open.");
+			}
+			try {
+				T result = invoke(orgetorixStub);
+				breaker.recordSuccess();
+				return result;
+			} catch (RemoteException e) {
+				breaker.recordFailure();
+				metrics.incrementCounter("orgetorix.failed");
+				invalidateServer(orgetorixDetail);
+				try {
+					setupOrgetorixStub();
+				} catch (OlympicException o) {
+					System.err.println(o.getMessage());
+				}
+				throw e;
+			}
+		}
+	}
+
 	private static Obelix getObelixInstance() {
 		if (Obelix.obelixServerInstance == null) {
 			Obelix.obelixServerInstance = new Obelix(SERVICE_FINDER_HOST,
@@ -115,27 +301,98 @@ public class Obelix extends BullyElectedBerkeleySynchronized implements
 	}
 
 	/**
-	 * Remote method to update results and medal tallies of a completed event.
-	 * Called by Cacophonix when it receives an update from Games.
+	 * Applies a batch of updates relayed by Cacophonix, in order. Scores are
+	 * pushed to the subscribers of this Obelix; only updates marked as write
+	 * through are also written to Orgetorix, as Cacophonix marks them for
+	 * exactly one Obelix. Scores that were already pushed, or that are older
+	 * than the last scores pushed for the event, are not pushed again.
+	 * Orgetorix discards duplicate writes itself.
+	 * 
+	 * @param updates
 	 */
-	public void updateResultsAndTallies(Event simulatedEvent)
-			throws RemoteException {
-		System.err.println("Received updateResultsAndTallies msg.");
-		orgetorixStub.updateResultsAndTallies(simulatedEvent);
+	public void applyUpdates(List<EventUpdate> updates) throws RemoteException {
+		System.err.println("Received applyUpdates msg with " + updates.size()
+				+ " updates.");
+		long startTime = System.nanoTime();
+		this.requestLimiter.acquirePriority();
+		try {
+			for (EventUpdate update : updates) {
+				if (update.getVersion() != 0) {
+					this.hybridClock.update(update.getVersion());
+				}
+				if (!update.isResultUpdate()) {
+					if (this.pushedUpdates.tryApply(update)) {
+						pushCurrentScores(update.getEventName(),
+								update.getScores());
+					} else {
+						this.metrics.incrementCounter("push.stale");
+					}
+				}
+				if (update.isWriteThrough()) {
+					this.writeUpdate(update);
+				}
+			}
+		} finally {
+			this.releasePriorityRequest("applyUpdates", startTime);
+		}
+	}
+
+	/**
+	 * Writes a sequenced update to Orgetorix.
+	 * 
+	 * @param update
+	 * @throws RemoteException
+	 */
+	private void writeUpdate(final EventUpdate update) throws RemoteException {
+		new OrgetorixRequest<Void>() {
 
+			@Override
+			protected Void invoke(OrgetorixInterface stub)
+					throws RemoteException {
+				stub.applyUpdate(update);
+				return null;
+			}
+		}.call();
+	}
+
+	/**
+	 * Releases an admitted request, feeding its latency to the admission
+	 * control and to the latency histogram of the method.
+	 * 
+	 * @param methodName
+	 * @param startTime
+	 */
+	private void releaseRequest(String methodName, long startTime) {
+		this.requestLimiter.release(TimeUnit.NANOSECONDS.toMillis(System
+				.nanoTime() - startTime));
+		this.metrics.recordLatency(methodName, startTime);
+	}
+
+	/**
+	 * Releases an admitted priority request. Its latency is only recorded in
+	 * the latency histogram of the method, as writes are much slower than
+	 * client reads and must not shrink the limit on client requests.
+	 * 
+	 * @param methodName
+	 * @param startTime
+	 */
+	private void releasePriorityRequest(String methodName, long startTime) {
+		this.requestLimiter.releasePriority();
+		this.metrics.recordLatency(methodName, startTime);
 	}
 
 	/**
-	 * Updates the scores of an on going event. Synchronized as scores are read
-	 * to answer client queries.
+	 * Admits a client request, or rejects it straight away if Obelix is
+	 * overloaded. An admitted request must be served by one of the serve
+	 * methods, which release it.
 	 * 
-	 * @param eventResult
+	 * @throws ServerOverloadedException
 	 */
-	public void updateCurrentScores(EventCategories eventName,
-			List<Athlete> currentScores) throws RemoteException {
-		System.err.println("Received updateCurrentScores msg.");
-		pushCurrentScores(eventName, currentScores);
-		orgetorixStub.updateCurrentScores(eventName, currentScores);
+	void admitRequest() throws ServerOverloadedException {
+		if (!this.requestLimiter.tryAcquire()) {
+			throw new ServerOverloadedException("Obelix "
+					+ this.getServerName() + " is overloaded.");
+		}
 	}
 
 	/**
@@ -147,14 +404,50 @@ public class Obelix extends BullyElectedBerkeleySynchronized implements
 	private void pushCurrentScores(final EventCategories eventName,
 			final List<Athlete> currentScores) throws RemoteException {
 		System.err.println("Pushing current scores.");
-		Thread scoreThread = new Thread(new Runnable() {
+		final ScoreDelta scoreDelta = computeScoreDelta(eventName,
+				currentScores);
+		this.pushExecutor.execute(new Runnable() {
 
 			@Override
 			public void run() {
-				sendScoresToSubscribers(eventName, currentScores);
+				sendScoresToSubscribers(eventName, currentScores, scoreDelta);
 			}
-		}, "Score Update Thread");
-		scoreThread.start();
+		});
+	}
+
+	/**
+	 * Computes the change in scores of an event since the previous push, and
+	 * assigns it the next sequence number of the event.
+	 * 
+	 * @param eventName
+	 * @param currentScores
+	 * @return ScoreDelta
+	 */
+	private ScoreDelta computeScoreDelta(EventCategories eventName,
+			List<Athlete> currentScores) {
+		synchronized (this.pushedScores) {
+			Map<String, Integer> previousScores = this.pushedScores
+					.get(eventName);
+			Long previousSequenceNumber = this.pushSequenceNumbers
+					.get(eventName);
+			long sequenceNumber = (previousSequenceNumber == null) ? 1
+					: previousSequenceNumber + 1;
+
+			ScoreDelta scoreDelta = new ScoreDelta(eventName, sequenceNumber);
+			Map<String, Integer> scores = new HashMap<String, Integer>();
+			for (Athlete athlete : currentScores) {
+				scores.put(athlete.getName(), athlete.getScore());
+				if (previousScores == null
+						|| !Integer.valueOf(athlete.getScore()).equals(
+								previousScores.get(athlete.getName()))) {
+					scoreDelta.addScore(athlete.getName(), athlete.getScore());
+				}
+			}
+
+			this.pushedScores.put(eventName, scores);
+			this.pushSequenceNumbers.put(eventName, sequenceNumber);
+			return scoreDelta;
+		}
 	}
 
 	/**
@@ -164,29 +457,41 @@ public class Obelix extends BullyElectedBerkeleySynchronized implements
 	 */
 	private void pushResults(final Event completedEvent) {
 		System.err.println("Pushing results.");
-		Thread resultThread = new Thread(new Runnable() {
+		this.pushExecutor.execute(new Runnable() {
 
 			@Override
 			public void run() {
 				sendResultsToSubscribers(completedEvent.getName(),
 						completedEvent.getResult());
 			}
-		}, "Result Update Thread");
-		resultThread.start();
+		});
 	}
 
 	/**
 	 * Remote function that can be called by clients to get the results of a
 	 * completed event.
 	 */
-	public Results getResults(EventCategories eventName, String clientID) {
+	public Results getResults(EventCategories eventName, String clientID)
+			throws ServerOverloadedException {
+		admitRequest();
+		return serveResults(eventName, clientID);
+	}
+
+	/**
+	 * Serves a request for the results of a completed event that has already
+	 * been admitted, and releases it.
+	 */
+	Results serveResults(EventCategories eventName, String clientID) {
 		System.err.println("Sending results for " + eventName + ".");
+		long startTime = System.nanoTime();
 		try {
 			this.notifyEvent(clientID);
-			Results result = orgetorixStub.getResults(eventName);
+			Results result = fetchResults(eventName);
 			return result;
 		} catch (RemoteException r) {
 			return null;
+		} finally {
+			this.releaseRequest("getResults", startTime);
 		}
 
 	}
@@ -196,14 +501,27 @@ public class Obelix extends BullyElectedBerkeleySynchronized implements
 	 * of an on going event.
 	 */
 	public List<Athlete> getCurrentScores(EventCategories eventName,
-			String clientID) throws RemoteException {
+			String clientID) throws RemoteException, ServerOverloadedException {
+		admitRequest();
+		return serveCurrentScores(eventName, clientID);
+	}
+
+	/**
+	 * Serves a request for the current scores of an on going event that has
+	 * already been admitted, and releases it.
+	 */
+	List<Athlete> serveCurrentScores(EventCategories eventName, String clientID)
+			throws RemoteException {
 		System.err.println("Sending current scores for " + eventName + ".");
+		long startTime = System.nanoTime();
 		try {
 			this.notifyEvent(clientID);
-			return orgetorixStub.getCurrentScores(eventName);
+			return fetchCurrentScores(eventName);
 		} catch (RemoteException r) {
 			return null;
 
+		} finally {
+			this.releaseRequest("getCurrentScores", startTime);
 		}
 	}
 
@@ -211,16 +529,92 @@ public class Obelix extends BullyElectedBerkeleySynchronized implements
 	 * Remote function that can be called by clients to get the medal tally of a
 	 * particular team.
 	 */
-	public Tally getMedalTally(NationCategories teamName, String clientID) {
+	public Tally getMedalTally(NationCategories teamName, String clientID)
+			throws ServerOverloadedException {
+		admitRequest();
+		return serveMedalTally(teamName, clientID);
+	}
+
+	/**
+	 * Serves a request for the medal tally of a team that has already been
+	 * admitted, and releases it.
+	 */
+	Tally serveMedalTally(NationCategories teamName, String clientID) {
 		System.err.println("Sending medal tally for " + teamName + ".");
+		long startTime = System.nanoTime();
 		try {
 			this.notifyEvent(clientID);
-			return orgetorixStub.getMedalTally(teamName);
+			return fetchMedalTally(teamName);
 		} catch (RemoteException r) {
 			return null;
+		} finally {
+			this.releaseRequest("getMedalTally", startTime);
 		}
 	}
 
+	/**
+	 * Retrieves the results of an event from Orgetorix, sharing the response
+	 * of an identical request that is already in flight.
+	 * 
+	 * @param eventName
+	 * @return Results
+	 * @throws RemoteException
+	 */
+	private Results fetchResults(final EventCategories eventName)
+			throws RemoteException {
+		return this.resultRequests.execute(eventName,
+				new OrgetorixRequest<Results>() {
+
+					@Override
+					protected Results invoke(OrgetorixInterface stub)
+							throws RemoteException {
+						return stub.getResults(eventName);
+					}
+				});
+	}
+
+	/**
+	 * Retrieves the current scores of an event from Orgetorix, sharing the
+	 * response of an identical request that is already in flight.
+	 * 
+	 * @param eventName
+	 * @return List<Athlete>
+	 * @throws RemoteException
+	 */
+	private List<Athlete> fetchCurrentScores(final EventCategories eventName)
+			throws RemoteException {
+		return this.scoreRequests.execute(eventName,
+				new OrgetorixRequest<List<Athlete>>() {
+
+					@Override
+					protected List<Athlete> invoke(OrgetorixInterface stub)
+							throws RemoteException {
+						return stub.getCurrentScores(eventName);
+					}
+				});
+	}
+
+	/**
+	 * Retrieves the medal tally of a team from Orgetorix, sharing the response
+	 * of an identical request that is already in flight.
+	 * 
+	 * @param teamName
+	 * @return Tally
+	 * @throws RemoteException
+	 */
+	private Tally fetchMedalTally(final NationCategories teamName)
+			throws RemoteException {
+		return this.tallyRequests.execute(teamName,
+				new OrgetorixRequest<Tally>() {
+
+					@Override
+					protected Tally invoke(OrgetorixInterface stub)
+							throws RemoteException {
+						return stub.getMedalTally(teamName);
+					}
+				});
+	}
+
 	/**
 	 * Remote function that can be called by a client to create a subscription
 	 * to a particular event.
@@ -228,23 +622,20 @@ public class Obelix extends BullyElectedBerkeleySynchronized implements
 	public void registerClient(String clientID, String clientHost,
 			EventCategories eventName) {
 		System.err.println("Registering client " + clientID + ".");
-		Subscription subscription = null;
-
-		synchronized (this.subscriptionMap) {
-			if (this.subscriptionMap.containsKey(eventName)) {
-				subscription = this.subscriptionMap.get(eventName);
-			} else {
-				subscription = new Subscription();
-				subscription.setEventName(eventName);
-				this.subscriptionMap.put(eventName, subscription);
-			}
+		Subscription subscription = this.subscriptionMap.get(eventName);
 
-			subscription.addSubscriber(clientID);
+		if (subscription == null) {
+			Subscription newSubscription = new Subscription();
+			newSubscription.setEventName(eventName);
+			subscription = this.subscriptionMap.putIfAbsent(eventName,
+					newSubscription);
+			if (subscription == null) {
+				subscription = newSubscription;
+			}
 		}
 
-		synchronized (this.subscriberHostMap) {
-			this.subscriberHostMap.put(clientID, clientHost);
-		}
+		this.subscriberHostMap.put(clientID, clientHost);
+		subscription.addSubscriber(clientID);
 
 		for (Event completedEvent : completedEvents) {
 			if (completedEvent.getName() == eventName) {
@@ -255,44 +646,184 @@ public class Obelix extends BullyElectedBerkeleySynchronized implements
 	}
 
 	/**
-	 * Pushes new scores of an event to all subscribers of that event. Also
-	 * measures the average push latency across all subscribers for each update
-	 * set.
+	 * Remote function that can be called by a client to cancel its
+	 * subscription to a particular event.
+	 */
+	public void unsubscribe(String clientID, EventCategories eventName) {
+		System.err.println("Unsubscribing client " + clientID + ".");
+		Subscription subscription = this.subscriptionMap.get(eventName);
+		if (subscription != null && subscription.removeSubscriber(clientID)) {
+			releaseSubscriber(clientID);
+		}
+	}
+
+	/**
+	 * Forgets the host of a subscriber once it holds no more subscriptions.
+	 * 
+	 * @param subscriber
+	 */
+	private void releaseSubscriber(String subscriber) {
+		for (Subscription subscription : this.subscriptionMap.values()) {
+			if (subscription.hasSubscriber(subscriber)) {
+				return;
+			}
+		}
+		this.subscriberHostMap.remove(subscriber);
+		this.subscriberBreakers.remove(subscriber);
+	}
+
+	/**
+	 * Removes a subscriber from all subscriptions.
+	 * 
+	 * @param subscriber
+	 */
+	private void evictSubscriber(String subscriber) {
+		System.err.println("Evicting unreachable subscriber " + subscriber
+				+ ".");
+		this.metrics.incrementCounter("push.evicted");
+		for (Subscription subscription : this.subscriptionMap.values()) {
+			subscription.removeSubscriber(subscriber);
+		}
+		releaseSubscriber(subscriber);
+	}
+
+	/**
+	 * Retrieves the circuit breaker guarding pushes to a subscriber.
+	 * 
+	 * @param subscriber
+	 * @return CircuitBreaker
+	 */
+	private CircuitBreaker getSubscriberBreaker(String subscriber) {
+		CircuitBreaker breaker = this.subscriberBreakers.get(subscriber);
+		if (breaker == null) {
+			CircuitBreaker newBreaker = new CircuitBreaker(
+					PUSH_FAILURE_THRESHOLD, PUSH_INITIAL_BACKOFF,
+					PUSH_MAX_BACKOFF);
+			breaker = this.subscriberBreakers.putIfAbsent(subscriber,
+					newBreaker);
+			if (breaker == null) {
+				breaker = newBreaker;
+			}
+		}
+		return breaker;
+	}
+
+	/**
+	 * Checks whether a push may be made to a subscriber.
+	 * 
+	 * @param subscriber
+	 * @return False if pushes to the subscriber are currently being skipped.
+	 */
+	private boolean allowPush(String subscriber) {
+		if (getSubscriberBreaker(subscriber).allowRequest()) {
+			return true;
+		}
+		this.metrics.incrementCounter("push.skipped");
+		return false;
+	}
+
+	/**
+	 * Records a failed push to a subscriber, evicting it if it has failed too
+	 * many times in a row.
+	 * 
+	 * @param subscriber
+	 * @param e
+	 */
+	private void recordPushFailure(String subscriber, Exception e) {
+		this.metrics.incrementCounter("push.failed");
+		System.err.println("Push to " + subscriber + " failed: "
+				+ e.getMessage());
+		CircuitBreaker breaker = getSubscriberBreaker(subscriber);
+		breaker.recordFailure();
+		if (breaker.getConsecutiveFailures() >= PUSH_EVICTION_THRESHOLD) {
+			evictSubscriber(subscriber);
+		}
+	}
+
+	/**
+	 * Evicts all subscribers whose lease has expired.
+	 */
+	void expireSubscribers() {
+		long currentTime = System.currentTimeMillis();
+		for (Subscription subscription : this.subscriptionMap.values()) {
+			for (String subscriber : subscription
+					.expireSubscribers(currentTime)) {
+				System.err.println("Subscription of " + subscriber + " to "
+						+ subscription.getEventName() + " expired.");
+				this.metrics.incrementCounter("subscriptions.expired");
+				releaseSubscriber(subscriber);
+			}
+		}
+	}
+
+	/**
+	 * Renews the lease of every subscription held by a client.
+	 * 
+	 * @param subscriber
+	 */
+	private void renewSubscriptions(String subscriber) {
+		if (!this.subscriberHostMap.containsKey(subscriber)) {
+			return;
+		}
+		for (Subscription subscription : this.subscriptionMap.values()) {
+			subscription.renewSubscriber(subscriber);
+		}
+	}
+
+	/**
+	 * Setup the subscription reaper thread.
+	 */
+	private void setupSubscriptionReaperThread() {
+		TaskExecutors.startBackgroundTask("SubscriptionReaperThread",
+				new SubscriptionReaper(this));
+	}
+
+	/**
+	 * Pushes new scores of an event to all subscribers of that event. A
+	 * subscriber that holds the full scores is only sent the delta; one that
+	 * does not, or that reports a gap in the sequence of deltas, is sent the
+	 * full scores instead. Also records the push latency of each subscriber.
 	 * 
 	 * @param eventName
 	 * @param currentScores
+	 * @param scoreDelta
 	 * @throws NotBoundException
 	 * @throws RemoteException
 	 */
 	private void sendScoresToSubscribers(EventCategories eventName,
-			List<Athlete> currentScores) {
-		Subscription subscription = null;
-
-		synchronized (this.subscriptionMap) {
-			subscription = this.subscriptionMap.get(eventName);
-		}
+			List<Athlete> currentScores, ScoreDelta scoreDelta) {
+		Subscription subscription = this.subscriptionMap.get(eventName);
 
 		if (subscription == null) {
 			return;
 		}
 
-		long startTime = System.currentTimeMillis();
-		synchronized (this.subscriptionMap) {
-			for (String subscriber : subscription.getSubscribers()) {
-				TabletInterface tabletStub;
-				try {
-					tabletStub = setupObelixClient(subscriber);
-					tabletStub.updateScores(eventName, currentScores);
-				} catch (NotBoundException e) {
-					e.printStackTrace();
-				} catch (RemoteException e) {
-					e.printStackTrace();
+		for (String subscriber : subscription.getSubscribers()) {
+			if (!allowPush(subscriber)) {
+				continue;
+			}
+			TabletInterface tabletStub;
+			long startTime = System.nanoTime();
+			try {
+				tabletStub = setupObelixClient(subscriber);
+				if (subscription.isSynchronized(subscriber)
+						&& tabletStub.updateScoreDelta(scoreDelta)) {
+					this.metrics.incrementCounter("push.delta");
+				} else {
+					tabletStub.updateScores(eventName,
+							scoreDelta.getSequenceNumber(), currentScores);
+					subscription.markSynchronized(subscriber);
+					this.metrics.incrementCounter("push.snapshot");
 				}
+				this.metrics.recordLatency("push.updateScores", startTime);
+				getSubscriberBreaker(subscriber).recordSuccess();
+				subscription.renewSubscriber(subscriber);
+			} catch (NotBoundException e) {
+				recordPushFailure(subscriber, e);
+			} catch (RemoteException e) {
+				recordPushFailure(subscriber, e);
 			}
 		}
-		long duration = System.currentTimeMillis() - startTime;
-		System.out.println("Average push latency: "
-				+ (duration / subscription.getSubscribers().size()));
 	}
 
 	/**
@@ -306,15 +837,13 @@ public class Obelix extends BullyElectedBerkeleySynchronized implements
 	 */
 	private TabletInterface setupObelixClient(String subscriber)
 			throws RemoteException, NotBoundException {
-		Registry registry = null;
 		// TODO: REMOVE SUBSCRIBER HOSTMAP AND SIMPLY USE SERVICEFINDER HERE.
-		synchronized (this.subscriberHostMap) {
-			registry = LocateRegistry.getRegistry(
-					this.subscriberHostMap.get(subscriber), JAVA_RMI_PORT);
-			TabletInterface tabletStub = (TabletInterface) registry
-					.lookup(subscriber);
-			return tabletStub;
+		String subscriberHost = this.subscriberHostMap.get(subscriber);
+		if (subscriberHost == null) {
+			throw new NotBoundException(subscriber);
 		}
+		return TransportProvider.getTransport().lookup(subscriberHost,
+				JAVA_RMI_PORT, subscriber, TabletInterface.class);
 	}
 
 	/**
@@ -325,29 +854,33 @@ public class Obelix extends BullyElectedBerkeleySynchronized implements
 	 */
 	private void sendResultsToSubscribers(EventCategories eventName,
 			Results result) {
-		Subscription subscription = null;
-
-		synchronized (this.subscriptionMap) {
-			subscription = this.subscriptionMap.remove(eventName);
-		}
+		Subscription subscription = this.subscriptionMap.remove(eventName);
 
 		if (subscription == null) {
 			return;
 		}
 
-		synchronized (this.subscriberHostMap) {
-			for (String subscriber : subscription.getSubscribers()) {
-				TabletInterface tabletStub;
-				try {
-					tabletStub = setupObelixClient(subscriber);
-					tabletStub.updateResults(eventName, result);
-				} catch (RemoteException e) {
-					e.printStackTrace();
-				} catch (NotBoundException e) {
-					e.printStackTrace();
-				}
+		for (String subscriber : subscription.getSubscribers()) {
+			if (!allowPush(subscriber)) {
+				continue;
+			}
+			TabletInterface tabletStub;
+			long startTime = System.nanoTime();
+			try {
+				tabletStub = setupObelixClient(subscriber);
+				tabletStub.updateResults(eventName, result);
+				this.metrics.recordLatency("push.updateResults", startTime);
+				getSubscriberBreaker(subscriber).recordSuccess();
+			} catch (RemoteException e) {
+				recordPushFailure(subscriber, e);
+			} catch (NotBoundException e) {
+				recordPushFailure(subscriber, e);
 			}
 		}
+
+		for (String subscriber : subscription.getSubscribers()) {
+			releaseSubscriber(subscriber);
+		}
 	}
 
 	/**
@@ -360,25 +893,31 @@ public class Obelix extends BullyElectedBerkeleySynchronized implements
 	 */
 	private void setupObelixServer(RegistryService regService)
 			throws IOException, OlympicException {
-		Registry registry = null;
-
 		this.register(OBELIX_SERVICE_NAME, regService.getLocalIPAddress(),
 				JAVA_RMI_PORT);
-		ObelixInterface serverStub = (ObelixInterface) UnicastRemoteObject
-				.exportObject(Obelix.getObelixInstance(), 0);
-		try {
-			registry = LocateRegistry.getRegistry(JAVA_RMI_PORT);
-			registry.rebind(this.getServerName(), serverStub);
-			System.err.println("Registry Service running at "
-					+ regService.getLocalIPAddress() + ":" + JAVA_RMI_PORT
-					+ ".");
-			System.err.println("Obelix ready.");
-		} catch (RemoteException e) {
-			registry = regService.setupLocalRegistry(JAVA_RMI_PORT);
-//			registry = LocateRegistry.getRegistry(JAVA_RMI_PORT);
-			registry.rebind(this.getServerName(), serverStub);
-			System.err.println("New Registry Service created. Obelix ready.");
-		}
+		this.bindServer(Obelix.getObelixInstance(), JAVA_RMI_PORT);
+		System.err.println("Obelix ready.");
+	}
+
+	/**
+	 * Starts the binary protocol front end alongside the RMI server and
+	 * registers it with {@link ServiceFinder} under its own service name, with
+	 * the same PID as this Obelix. Listens on an ephemeral port unless one is
+	 * specified.
+	 * 
+	 * @param regService
+	 * @throws IOException
+	 */
+	private void setupBinaryFrontend(RegistryService regService)
+			throws IOException {
+		this.binaryFrontend = new ObelixNioFrontend(this, BINARY_PORT);
+		TaskExecutors.startBackgroundTask("BinaryFrontendThread",
+				this.binaryFrontend);
+		this.register(OBELIX_BINARY_SERVICE_NAME,
+				regService.getLocalIPAddress(), this.binaryFrontend.getPort());
+		System.err.println("Binary front end running at "
+				+ regService.getLocalIPAddress() + ":"
+				+ this.binaryFrontend.getPort() + ".");
 	}
 
 	/**
@@ -395,13 +934,22 @@ public class Obelix extends BullyElectedBerkeleySynchronized implements
 				: Integer.parseInt(args[1]);
 		JAVA_RMI_PORT = (args.length < 3) ? DEFAULT_JAVA_RMI_PORT : Integer
 				.parseInt(args[2]);
+		MAX_CONCURRENT_REQUESTS = (args.length < 4) ? DEFAULT_MAX_CONCURRENT_REQUESTS
+				: Integer.parseInt(args[3]);
+		BINARY_PORT = (args.length < 5) ? BINARY_PORT : Integer
+				.parseInt(args[4]);
 		final Obelix obelixInstance = Obelix.getObelixInstance();
 		try {
 			RegistryService regService = new RegistryService();
 			System.setProperty(JAVA_RMI_HOSTNAME_PROPERTY,
 					regService.getLocalIPAddress());
 			obelixInstance.setupObelixServer(regService);
+			obelixInstance.setupBinaryFrontend(regService);
+			obelixInstance.watchParticipants();
 			obelixInstance.setupOrgetorixStub();
+			obelixInstance.setupLotteryGossipThread();
+			obelixInstance.setupLoadReportThread();
+			obelixInstance.setupSubscriptionReaperThread();
 			obelixInstance.initiateElection();
 		} catch (IOException e) {
 			throw new OlympicException(
@@ -418,51 +966,151 @@ public class Obelix extends BullyElectedBerkeleySynchronized implements
 	 */
 	public LotteryManager getLotteryManagerClientStub(ServerDetail participant)
 			throws RemoteException {
-		Registry registry = null;
-		LotteryManager client = null;
-		registry = LocateRegistry.getRegistry(participant.getServiceAddress(),
-				participant.getServicePort());
-		try {
-			client = (LotteryManager) registry.lookup(participant
-					.getServerName());
-		} catch (NotBoundException e) {
-			e.printStackTrace();
-		}
-		return client;
+		return this.getClientStub(participant, LotteryManager.class);
 	}
 
 	/**
-	 * Notifies the occurrence of a new event by synchronizing current process
-	 * timestamp with other processes. Each new request received counts as a new
-	 * event.
+	 * Notifies the occurrence of a new event. Each new request received counts
+	 * as a new event, and renews the subscriptions of the client making the
+	 * request. Entry into the lottery is decided from the local request count
+	 * alone, so that requests do not wait for the other processes. Lottery
+	 * entries are recorded locally and replicated to other processes in
+	 * batches by the {@link LotteryGossiper}. Entries are identified by their
+	 * hybrid logical clock timestamp and the name of this server.
 	 * 
 	 * @param participantID
-	 * @throws RemoteException
 	 */
-	private void notifyEvent(String participantID) throws RemoteException {
-		long timestampValue = this.syncServers();
+	private void notifyEvent(String participantID) {
+		this.renewSubscriptions(participantID);
 		if (!lotteryFrozen) {
-			synchronized (this.localRequestCounter) {
-				localRequestCounter++;
-			}
-			if (timestampValue % lottery.lotteryEnterFrequency == 0) {
+			int requestCount = this.localRequestCounter.incrementAndGet();
+			if (requestCount % lottery.lotteryEnterFrequency == 0) {
 				System.out.println("Entering " + participantID
 						+ " into lottery.");
-				this.addParticipant(participantID);
-				syncParticipants(participantID);
+				String entryID = HybridLogicalClock.format(this.hybridClock
+						.now()) + ":" + this.getServerName();
+				synchronized (this.lottery) {
+					this.lottery.addParticipant(entryID, participantID);
+				}
+				synchronized (this.pendingParticipants) {
+					this.pendingParticipants.put(entryID, participantID);
+				}
 			}
 		}
 	}
 
-	private void syncParticipants(String participantID) throws RemoteException {
+	/**
+	 * Reports the current load of this Obelix to {@link ServiceFinder}, so that
+	 * clients may be steered towards less loaded servers.
+	 * 
+	 * @throws RemoteException
+	 */
+	void reportCurrentLoad() throws RemoteException {
+		this.reportLoad(this.requestLimiter.getInFlight(),
+				this.requestLimiter.getAverageLatency());
+	}
+
+	/**
+	 * Setup the load reporter thread.
+	 */
+	private void setupLoadReportThread() {
+		TaskExecutors.startBackgroundTask("LoadReportThread",
+				new LoadReporter(this));
+	}
+
+	/**
+	 * Setup the lottery gossip thread.
+	 */
+	private void setupLotteryGossipThread() {
+		TaskExecutors.startBackgroundTask("LotteryGossipThread",
+				new LotteryGossiper(this));
+	}
+
+	/**
+	 * Replicates all buffered lottery entries to the other Obelix servers with
+	 * a single bulk call per server. Each server is sent its own backlog, and
+	 * entries are removed from it only once the server has received them, so
+	 * that a server that cannot be reached, or whose circuit is open, gets
+	 * them on a later round without holding back the others. The backlog of a
+	 * server that is no longer registered is dropped.
+	 * 
+	 * @throws RemoteException
+	 *             If any server could not be sent its backlog.
+	 */
+	void syncParticipants() throws RemoteException {
 		List<ServerDetail> participants = findAllParticipants(OBELIX_SERVICE_NAME);
-		for (ServerDetail participant : participants) {
-			if (participant.getPID() == this.PID) {
+		Map<ServerDetail, Map<String, String>> backlogs = new HashMap<ServerDetail, Map<String, String>>();
+		synchronized (this.pendingParticipants) {
+			Map<String, Map<String, String>> peerEntries = new HashMap<String, Map<String, String>>();
+			for (ServerDetail participant : participants) {
+				if (participant.getPID() == this.PID) {
+					continue;
+				}
+				Map<String, String> entries = this.peerPendingParticipants
+						.get(participant.getServerName());
+				if (entries == null) {
+					entries = new HashMap<String, String>();
+				}
+				entries.putAll(this.pendingParticipants);
+				peerEntries.put(participant.getServerName(), entries);
+				if (!entries.isEmpty()) {
+					backlogs.put(participant, new HashMap<String, String>(
+							entries));
+				}
+			}
+			this.pendingParticipants.clear();
+			this.peerPendingParticipants = peerEntries;
+		}
+
+		RemoteException failure = null;
+		for (Map.Entry<ServerDetail, Map<String, String>> backlog : backlogs
+				.entrySet()) {
+			ServerDetail participant = backlog.getKey();
+			CircuitBreaker breaker = getPeerBreaker(participant);
+			if (!breaker.allowRequest()) {
+				failure = new RemoteException("Circuit to "
+						+ participant.getServerName() + " is open.");
 				continue;
 			}
+			try {
+				LotteryManager clientStub = getLotteryManagerClientStub(participant);
+				if (clientStub == null) {
+					throw new RemoteException(participant.getServerName()
+							+ " is not bound.");
+				}
+				clientStub.addParticipants(backlog.getValue());
+				breaker.recordSuccess();
+				this.acknowledgeParticipants(participant.getServerName(),
+						backlog.getValue());
+			} catch (RemoteException e) {
+				breaker.recordFailure();
+				this.invalidateServer(participant);
+				failure = e;
+				System.err.println("Could not replicate lottery entries to "
+						+ participant.getServerName() + ".");
+			}
+		}
 
-			LotteryManager clientStub = getLotteryManagerClientStub(participant);
-			clientStub.addParticipant(participantID);
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Utility function to remove the entries a server has received from its
+	 * backlog.
+	 * 
+	 * @param serverName
+	 * @param entries
+	 */
+	private void acknowledgeParticipants(String serverName,
+			Map<String, String> entries) {
+		synchronized (this.pendingParticipants) {
+			Map<String, String> peerEntries = this.peerPendingParticipants
+					.get(serverName);
+			if (peerEntries != null) {
+				peerEntries.keySet().removeAll(entries.keySet());
+			}
 		}
 	}
 
@@ -473,29 +1121,20 @@ public class Obelix extends BullyElectedBerkeleySynchronized implements
 	}
 
 	/**
-	 * Implements totally-ordered multicasting. Multicasts current process'
-	 * timestamp and waits for updated timestamps from all processes.
+	 * Adds a batch of lottery entries replicated from another Obelix server.
+	 * Entries already known are ignored.
 	 * 
-	 * @return Update timestamp for current process
+	 * @param entries
 	 * @throws RemoteException
 	 */
-
-	private synchronized long syncServers() throws RemoteException {
-		this.timeStamp.tick();
-		List<ServerDetail> participants = findAllParticipants(OBELIX_SERVICE_NAME);
-		List<LamportClock> lamportClocks = new ArrayList<LamportClock>();
-		for (ServerDetail participant : participants) {
-			if (participant.getPID() == this.PID) {
-				continue;
+	@Override
+	public void addParticipants(Map<String, String> entries)
+			throws RemoteException {
+		synchronized (this.lottery) {
+			for (Map.Entry<String, String> entry : entries.entrySet()) {
+				this.lottery.addParticipant(entry.getKey(), entry.getValue());
 			}
-			LotteryManager clientStub = getLotteryManagerClientStub(participant);
-			lamportClocks.add(clientStub.notifyTimeStamp(this.timeStamp));
-		}
-		for (LamportClock incomingClock : lamportClocks) {
-			this.timeStamp.synchronizeTime(incomingClock);
 		}
-
-		return this.timeStamp.getTime();
 	}
 
 	/**
@@ -507,16 +1146,33 @@ public class Obelix extends BullyElectedBerkeleySynchronized implements
 	@Override
 	public String conductLottery() throws RemoteException {
 		List<ServerDetail> participants = findAllParticipants(OBELIX_SERVICE_NAME);
-		List<LotteryManager> clientStubs = new ArrayList<LotteryManager>();
+		List<ServerDetail> frozenParticipants = new ArrayList<ServerDetail>();
 		for (ServerDetail participant : participants) {
-			LotteryManager clientStub = getLotteryManagerClientStub(participant);
-			clientStub.freezeLottery();
-			clientStubs.add(clientStub);
+			try {
+				LotteryManager clientStub = getLotteryManagerClientStub(participant);
+				if (clientStub != null) {
+					clientStub.freezeLottery();
+					frozenParticipants.add(participant);
+				}
+			} catch (RemoteException e) {
+				this.invalidateServer(participant);
+				System.err.println("Could not freeze lottery of "
+						+ participant.getServerName() + ".");
+			}
 		}
 		synchronized (this.lottery) {
 			String winner = this.lottery.conductDraw();
-			for (LotteryManager clientStub : clientStubs) {
-				clientStub.setLotteryWinner(winner);
+			for (ServerDetail participant : frozenParticipants) {
+				try {
+					LotteryManager clientStub = getLotteryManagerClientStub(participant);
+					if (clientStub != null) {
+						clientStub.setLotteryWinner(winner);
+					}
+				} catch (RemoteException e) {
+					this.invalidateServer(participant);
+					System.err.println("Could not send lottery winner to "
+							+ participant.getServerName() + ".");
+				}
 			}
 			return winner;
 		}
@@ -534,7 +1190,7 @@ public class Obelix extends BullyElectedBerkeleySynchronized implements
 		for (ServerDetail participant : participants) {
 			int load = 0;
 			if (participant.getPID() == this.PID) {
-				load = this.localRequestCounter;
+				load = this.localRequestCounter.get();
 			}
 			LotteryManager clientStub = getLotteryManagerClientStub(participant);
 			load = clientStub.getRequestCount();
@@ -571,27 +1227,26 @@ public class Obelix extends BullyElectedBerkeleySynchronized implements
 		lottery.lotteryEnterFrequency = lotteryEnterFrequency;
 	}
 
-	/**
-	 * Multicasts the current timestamp to other processes.
-	 * 
-	 * @return Updated timestamp of the current process.
-	 */
-
-	@Override
-	public LamportClock notifyTimeStamp(LamportClock incomingTimeStamp)
-			throws RemoteException {
-		this.timeStamp.synchronizeTime(incomingTimeStamp);
-		return this.timeStamp;
-	}
-
 	@Override
 	public int getRequestCount() throws RemoteException {
-		return this.localRequestCounter;
+		return this.localRequestCounter.get();
 	}
 
+	/**
+	 * Freezes the lottery and flushes any buffered entries to the other Obelix
+	 * servers, so that the draw sees every entry made before the freeze. The
+	 * flush is best effort: servers that cannot be reached miss the entries
+	 * rather than preventing the draw.
+	 */
 	@Override
 	public void freezeLottery() throws RemoteException {
 		this.lotteryFrozen = true;
+		try {
+			syncParticipants();
+		} catch (RemoteException e) {
+			this.metrics.incrementCounter("lottery.flush.failed");
+			System.err.println("Could not flush lottery entries to every server.");
+		}
 	}
 
 	@Override
@@ -600,9 +1255,24 @@ public class Obelix extends BullyElectedBerkeleySynchronized implements
 	}
 
 	@Override
-	public String getLotteryWinner(String clientID) throws RemoteException {
+	public String getLotteryWinner(String clientID) throws RemoteException,
+			ServerOverloadedException {
+		admitRequest();
+		return serveLotteryWinner(clientID);
+	}
+
+	/**
+	 * Serves a request for the lottery winner that has already been admitted,
+	 * and releases it.
+	 */
+	String serveLotteryWinner(String clientID) throws RemoteException {
 		System.err.println("Sending lottery winner information.");
-		notifyEvent(clientID);
+		long startTime = System.nanoTime();
+		try {
+			notifyEvent(clientID);
+		} finally {
+			this.releaseRequest("getLotteryWinner", startTime);
+		}
 		if (this.lotteryWinner == null) {
 			return null;
 		} else {
@@ -610,4 +1280,101 @@ public class Obelix extends BullyElectedBerkeleySynchronized implements
 		}
 	}
 
-}
\ No newline at end of file
+}
+
+/**
+ * Periodically replicates lottery entries buffered at an Obelix server to the
+ * other Obelix servers.
+ * 
+ * @author aravind
+ * 
+ */
+class LotteryGossiper implements Runnable {
+
+	private Obelix obelixInstance;
+	private static int GOSSIP_INTERVAL = 500;
+
+	public LotteryGossiper(Obelix obelixInstance) {
+		this.obelixInstance = obelixInstance;
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			try {
+				obelixInstance.syncParticipants();
+			} catch (RemoteException e) {
+				e.printStackTrace();
+			}
+
+			try {
+				Thread.sleep(GOSSIP_INTERVAL);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
+
+/**
+ * Periodically reports the load of an Obelix server to {@link ServiceFinder}.
+ * 
+ * @author aravind
+ * 
+ */
+class LoadReporter implements Runnable {
+
+	private Obelix obelixInstance;
+	private static int REPORT_INTERVAL = 1000;
+
+	public LoadReporter(Obelix obelixInstance) {
+		this.obelixInstance = obelixInstance;
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			try {
+				obelixInstance.reportCurrentLoad();
+			} catch (RemoteException e) {
+				e.printStackTrace();
+			}
+
+			try {
+				Thread.sleep(REPORT_INTERVAL);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
+
+/**
+ * Periodically evicts subscribers whose lease has expired from an Obelix
+ * server.
+ * 
+ * @author aravind
+ * 
+ */
+class SubscriptionReaper implements Runnable {
+
+	private Obelix obelixInstance;
+	private static int REAP_INTERVAL = 60000;
+
+	public SubscriptionReaper(Obelix obelixInstance) {
+		this.obelixInstance = obelixInstance;
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			obelixInstance.expireSubscribers();
+
+			try {
+				Thread.sleep(REAP_INTERVAL);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
@@ -5,10 +5,11 @@ import java.rmi.RemoteException;
 import java.util.List;
 
 import base.Athlete;
-import base.Event;
+import base.EventUpdate;
 import base.EventCategories;
 import base.NationCategories;
 import base.Results;
+import base.ServerOverloadedException;
 import base.Tally;
 
 /**
@@ -18,26 +19,26 @@ import base.Tally;
  * 
  */
 public interface ObelixInterface extends Remote {
-	public void updateResultsAndTallies(Event simulatedEvent)
-			throws RemoteException;
-
-	public void updateCurrentScores(EventCategories eventType,
-			List<Athlete> currentScores) throws RemoteException;
+	public void applyUpdates(List<EventUpdate> updates) throws RemoteException;
 
 	public Tally getMedalTally(NationCategories teamName, String clientID)
-			throws RemoteException;
+			throws RemoteException, ServerOverloadedException;
 
 	public Results getResults(EventCategories eventName, String clientID)
-			throws RemoteException;
+			throws RemoteException, ServerOverloadedException;
 
 	public List<Athlete> getCurrentScores(EventCategories eventName,
-			String clientID) throws RemoteException;
+			String clientID) throws RemoteException, ServerOverloadedException;
 
 	public void registerClient(String clientID, String clientHost,
 			EventCategories eventName) throws RemoteException;
 
+	public void unsubscribe(String clientID, EventCategories eventName)
+			throws RemoteException;
+
 	public String conductLottery() throws RemoteException;
 	
-	public String getLotteryWinner(String clientID) throws RemoteException;
+	public String getLotteryWinner(String clientID) throws RemoteException,
+			ServerOverloadedException;
 
 }
@@ -0,0 +1,359 @@
+package server;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+
+import util.TaskExecutors;
+import base.EventCategories;
+import base.NationCategories;
+import base.ServerOverloadedException;
+
+/**
+ * Serves Obelix queries over the binary protocol defined in
+ * {@link ObelixProtocol}. A single selector thread accepts connections, reads
+ * request frames and writes response frames. Each request is decoded and put
+ * through the admission control of Obelix on the selector thread, so that a
+ * rejected request is answered straight away without taking a thread;
+ * admitted requests are executed on the task executor of the front end, so
+ * that a client can pipeline several requests on one connection. Runs
+ * alongside the RMI interface of the same Obelix instance.
+ * 
+ * @author aravind
+ * 
+ */
+public class ObelixNioFrontend implements Runnable {
+
+	private static int READ_BUFFER_SIZE = 4096;
+
+	private Obelix obelix;
+	private Selector selector;
+	private ServerSocketChannel serverChannel;
+	private ExecutorService workers;
+	private Queue<Connection> pendingWrites;
+
+	public ObelixNioFrontend(Obelix obelix, int port)
+			throws IOException {
+		this.obelix = obelix;
+		this.selector = Selector.open();
+		this.serverChannel = ServerSocketChannel.open();
+		this.serverChannel.configureBlocking(false);
+		this.serverChannel.socket().bind(new InetSocketAddress(port));
+		this.serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+		this.workers = TaskExecutors.newTaskExecutor("BinaryFrontendWorker");
+		this.pendingWrites = new ConcurrentLinkedQueue<Connection>();
+	}
+
+	/**
+	 * @return The port the front end is listening on.
+	 */
+	public int getPort() {
+		return this.serverChannel.socket().getLocalPort();
+	}
+
+	/**
+	 * Selector loop. Runs until the front end is closed.
+	 */
+	@Override
+	public void run() {
+		while (this.selector.isOpen()) {
+			try {
+				this.selector.select();
+				this.registerPendingWrites();
+				Iterator<SelectionKey> keys = this.selector.selectedKeys()
+						.iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						this.accept();
+					} else {
+						Connection connection = (Connection) key.attachment();
+						try {
+							if (key.isReadable()) {
+								connection.read();
+							}
+							if (key.isValid() && key.isWritable()) {
+								connection.write();
+							}
+						} catch (IOException e) {
+							connection.close();
+						}
+					}
+				}
+			} catch (IOException e) {
+				System.err.println("Binary front end error: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Stops accepting requests and closes all connections.
+	 */
+	public void close() {
+		try {
+			this.workers.shutdown();
+			this.serverChannel.close();
+			for (SelectionKey key : this.selector.keys()) {
+				key.channel().close();
+			}
+			this.selector.close();
+		} catch (IOException e) {
+			System.err.println("Error closing binary front end: "
+					+ e.getMessage());
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = this.serverChannel.accept();
+		if (channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		SelectionKey key = channel.register(this.selector,
+				SelectionKey.OP_READ);
+		key.attach(new Connection(channel, key));
+	}
+
+	/**
+	 * Adds write interest for connections whose responses were queued by
+	 * worker threads since the last select. Interest ops are only changed on
+	 * the selector thread.
+	 */
+	private void registerPendingWrites() {
+		Connection connection;
+		while ((connection = this.pendingWrites.poll()) != null) {
+			if (connection.key.isValid()) {
+				connection.key.interestOps(SelectionKey.OP_READ
+						| SelectionKey.OP_WRITE);
+			}
+		}
+	}
+
+	/**
+	 * Decodes a request and admits it on the selector thread. A request that
+	 * cannot be decoded or is rejected is answered straight away; an admitted
+	 * one is executed against Obelix on the task executor, and its response
+	 * queued on the connection it arrived on.
+	 */
+	private void dispatch(final Connection connection, byte[] body) {
+		DataInputStream in = ObelixProtocol.openBody(body);
+		int requestId = -1;
+		final Request request;
+		try {
+			requestId = in.readInt();
+			request = new Request(requestId, in.readByte(), in);
+			this.obelix.admitRequest();
+		} catch (ServerOverloadedException e) {
+			this.queueError(connection, requestId,
+					ObelixProtocol.STATUS_OVERLOADED, e.getMessage());
+			return;
+		} catch (Exception e) {
+			this.queueError(connection, requestId,
+					ObelixProtocol.STATUS_ERROR, String.valueOf(e.getMessage()));
+			return;
+		}
+		this.workers.execute(new Runnable() {
+			@Override
+			public void run() {
+				ByteBuffer response = handleRequest(request);
+				if (response != null) {
+					connection.queueResponse(response);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Serves an admitted request.
+	 */
+	private ByteBuffer handleRequest(Request request) {
+		try {
+			Object result;
+			switch (request.opcode) {
+			case ObelixProtocol.GET_RESULTS:
+				result = this.obelix.serveResults(request.eventName,
+						request.clientID);
+				break;
+			case ObelixProtocol.GET_CURRENT_SCORES:
+				result = this.obelix.serveCurrentScores(request.eventName,
+						request.clientID);
+				break;
+			case ObelixProtocol.GET_MEDAL_TALLY:
+				result = this.obelix.serveMedalTally(request.teamName,
+						request.clientID);
+				break;
+			default:
+				result = this.obelix.serveLotteryWinner(request.clientID);
+				break;
+			}
+			return ObelixProtocol.encodeResponse(request.requestId,
+					request.opcode, result);
+		} catch (Exception e) {
+			return this.encodeError(request.requestId,
+					ObelixProtocol.STATUS_ERROR, String.valueOf(e.getMessage()));
+		}
+	}
+
+	private void queueError(Connection connection, int requestId,
+			byte status, String message) {
+		ByteBuffer response = this.encodeError(requestId, status, message);
+		if (response != null) {
+			connection.queueResponse(response);
+		}
+	}
+
+	private ByteBuffer encodeError(int requestId, byte status, String message) {
+		try {
+			return ObelixProtocol.encodeStatus(requestId, status, message);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * A decoded request frame.
+	 */
+	private static class Request {
+		private int requestId;
+		private byte opcode;
+		private EventCategories eventName;
+		private NationCategories teamName;
+		private String clientID;
+
+		public Request(int requestId, byte opcode, DataInputStream in)
+				throws IOException {
+			this.requestId = requestId;
+			this.opcode = opcode;
+			switch (opcode) {
+			case ObelixProtocol.GET_RESULTS:
+			case ObelixProtocol.GET_CURRENT_SCORES:
+				this.eventName = ObelixProtocol.readEvent(in);
+				break;
+			case ObelixProtocol.GET_MEDAL_TALLY:
+				this.teamName = ObelixProtocol.readNation(in);
+				break;
+			case ObelixProtocol.GET_LOTTERY_WINNER:
+				break;
+			default:
+				throw new IOException("Unknown opcode " + opcode + ".");
+			}
+			this.clientID = in.readUTF();
+		}
+	}
+
+	/**
+	 * State of one client connection: the partially read request frame and
+	 * the response frames waiting to be written.
+	 */
+	private class Connection {
+		private SocketChannel channel;
+		private SelectionKey key;
+		private ByteBuffer readBuffer;
+		private Queue<ByteBuffer> writeQueue;
+
+		public Connection(SocketChannel channel, SelectionKey key) {
+			this.channel = channel;
+			this.key = key;
+			this.readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+			this.writeQueue = new ConcurrentLinkedQueue<ByteBuffer>();
+		}
+
+		/**
+		 * Reads whatever is available and dispatches every complete frame.
+		 * 
+		 * @throws IOException
+		 */
+		public void read() throws IOException {
+			if (this.channel.read(this.readBuffer) < 0) {
+				this.close();
+				return;
+			}
+			this.readBuffer.flip();
+			while (this.readBuffer.remaining() >= ObelixProtocol.FRAME_HEADER_LENGTH) {
+				int length = this.readBuffer.getInt(this.readBuffer.position());
+				if (length < 0 || length > ObelixProtocol.MAX_FRAME_LENGTH) {
+					throw new IOException("Invalid frame length " + length
+							+ ".");
+				}
+				if (this.readBuffer.remaining() < ObelixProtocol.FRAME_HEADER_LENGTH
+						+ length) {
+					break;
+				}
+				this.readBuffer.getInt();
+				byte[] body = new byte[length];
+				this.readBuffer.get(body);
+				dispatch(this, body);
+			}
+			this.readBuffer.compact();
+			this.ensureCapacity();
+		}
+
+		/**
+		 * Grows the read buffer when the pending frame does not fit in it.
+		 */
+		private void ensureCapacity() {
+			if (this.readBuffer.position() < ObelixProtocol.FRAME_HEADER_LENGTH) {
+				return;
+			}
+			int required = ObelixProtocol.FRAME_HEADER_LENGTH
+					+ this.readBuffer.getInt(0);
+			if (required > this.readBuffer.capacity()) {
+				ByteBuffer larger = ByteBuffer.allocate(required);
+				this.readBuffer.flip();
+				larger.put(this.readBuffer);
+				this.readBuffer = larger;
+			}
+		}
+
+		/**
+		 * Writes queued responses until the queue is empty or the socket
+		 * buffer is full.
+		 * 
+		 * @throws IOException
+		 */
+		public void write() throws IOException {
+			ByteBuffer response;
+			while ((response = this.writeQueue.peek()) != null) {
+				this.channel.write(response);
+				if (response.hasRemaining()) {
+					return;
+				}
+				this.writeQueue.poll();
+			}
+			this.key.interestOps(SelectionKey.OP_READ);
+			if (!this.writeQueue.isEmpty()) {
+				pendingWrites.add(this);
+			}
+		}
+
+		public void queueResponse(ByteBuffer response) {
+			this.writeQueue.add(response);
+			pendingWrites.add(this);
+			selector.wakeup();
+		}
+
+		public void close() {
+			this.key.cancel();
+			try {
+				this.channel.close();
+			} catch (IOException e) {
+				// Connection is being discarded anyway.
+			}
+			this.writeQueue.clear();
+		}
+	}
+}
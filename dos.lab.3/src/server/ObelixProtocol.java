@@ -0,0 +1,294 @@
+package server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import base.Athlete;
+import base.EventCategories;
+import base.MedalCategories;
+import base.NationCategories;
+import base.Printable;
+import base.Results;
+import base.Tally;
+
+/**
+ * Encodes and decodes the compact binary protocol used to query Obelix
+ * without RMI. Every message is a frame made of a 4 byte length followed by
+ * that many bytes of body.
+ * 
+ * A request body holds a request ID, an opcode and the arguments of the query.
+ * A response body holds the request ID of the request it answers, a status
+ * and, if the status is {@link #STATUS_OK}, the result. Request IDs allow a
+ * client to pipeline requests on one connection and match responses that
+ * arrive out of order.
+ * 
+ * @author aravind
+ * 
+ */
+public class ObelixProtocol {
+
+	public static final byte GET_RESULTS = 1;
+	public static final byte GET_CURRENT_SCORES = 2;
+	public static final byte GET_MEDAL_TALLY = 3;
+	public static final byte GET_LOTTERY_WINNER = 4;
+
+	public static final byte STATUS_OK = 0;
+	public static final byte STATUS_NULL = 1;
+	public static final byte STATUS_OVERLOADED = 2;
+	public static final byte STATUS_ERROR = 3;
+
+	public static final int FRAME_HEADER_LENGTH = 4;
+	public static final int MAX_FRAME_LENGTH = 1 << 20;
+
+	private static MedalCategories[] MEDALS = MedalCategories.values();
+	private static NationCategories[] NATIONS = NationCategories.values();
+	private static EventCategories[] EVENTS = EventCategories.values();
+
+	/**
+	 * Encodes a request for the results or current scores of an event.
+	 * 
+	 * @return The request frame.
+	 * @throws IOException
+	 */
+	public static ByteBuffer encodeEventRequest(int requestId, byte opcode,
+			EventCategories eventName, String clientID) throws IOException {
+		FrameWriter writer = new FrameWriter(requestId, opcode);
+		writer.out.writeByte(eventName.ordinal());
+		writer.out.writeUTF(clientID);
+		return writer.toFrame();
+	}
+
+	/**
+	 * Encodes a request for the medal tally of a team.
+	 * 
+	 * @return The request frame.
+	 * @throws IOException
+	 */
+	public static ByteBuffer encodeTallyRequest(int requestId,
+			NationCategories teamName, String clientID) throws IOException {
+		FrameWriter writer = new FrameWriter(requestId, GET_MEDAL_TALLY);
+		writer.out.writeByte(teamName.ordinal());
+		writer.out.writeUTF(clientID);
+		return writer.toFrame();
+	}
+
+	/**
+	 * Encodes a request for the lottery winner.
+	 * 
+	 * @return The request frame.
+	 * @throws IOException
+	 */
+	public static ByteBuffer encodeLotteryRequest(int requestId,
+			String clientID) throws IOException {
+		FrameWriter writer = new FrameWriter(requestId, GET_LOTTERY_WINNER);
+		writer.out.writeUTF(clientID);
+		return writer.toFrame();
+	}
+
+	/**
+	 * Encodes a response to a request. The result must match the opcode of
+	 * the request; a null result is sent as {@link #STATUS_NULL}.
+	 * 
+	 * @return The response frame.
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	public static ByteBuffer encodeResponse(int requestId, byte opcode,
+			Object result) throws IOException {
+		if (result == null) {
+			return encodeStatus(requestId, STATUS_NULL, null);
+		}
+		FrameWriter writer = new FrameWriter(requestId, STATUS_OK);
+		switch (opcode) {
+		case GET_RESULTS:
+			writeResults(writer.out, (Results) result);
+			break;
+		case GET_CURRENT_SCORES:
+			writeAthletes(writer.out, (List<Athlete>) result);
+			break;
+		case GET_MEDAL_TALLY:
+			writeTally(writer.out, (Tally) result);
+			break;
+		case GET_LOTTERY_WINNER:
+			writer.out.writeUTF((String) result);
+			break;
+		default:
+			throw new IOException("Unknown opcode " + opcode + ".");
+		}
+		return writer.toFrame();
+	}
+
+	/**
+	 * Encodes a response carrying only a status, with an optional message.
+	 * 
+	 * @return The response frame.
+	 * @throws IOException
+	 */
+	public static ByteBuffer encodeStatus(int requestId, byte status,
+			String message) throws IOException {
+		FrameWriter writer = new FrameWriter(requestId, status);
+		if (message != null) {
+			writer.out.writeUTF(message);
+		}
+		return writer.toFrame();
+	}
+
+	/**
+	 * Decodes the result carried by a response with status
+	 * {@link #STATUS_OK}.
+	 * 
+	 * @param opcode
+	 *            Opcode of the request the response answers.
+	 * @param in
+	 *            Response body, positioned after the status.
+	 * @return The result of the request.
+	 * @throws IOException
+	 */
+	public static Object decodeResult(byte opcode, DataInputStream in)
+			throws IOException {
+		switch (opcode) {
+		case GET_RESULTS:
+			return readResults(in);
+		case GET_CURRENT_SCORES:
+			return readAthletes(in);
+		case GET_MEDAL_TALLY:
+			return readTally(in);
+		case GET_LOTTERY_WINNER:
+			return in.readUTF();
+		default:
+			throw new IOException("Unknown opcode " + opcode + ".");
+		}
+	}
+
+	/**
+	 * Utility function to read an event category.
+	 */
+	public static EventCategories readEvent(DataInputStream in)
+			throws IOException {
+		return EVENTS[in.readUnsignedByte()];
+	}
+
+	/**
+	 * Utility function to read a nation.
+	 */
+	public static NationCategories readNation(DataInputStream in)
+			throws IOException {
+		return NATIONS[in.readUnsignedByte()];
+	}
+
+	/**
+	 * Wraps a frame body for decoding.
+	 */
+	public static DataInputStream openBody(byte[] body) {
+		return new DataInputStream(new ByteArrayInputStream(body));
+	}
+
+	private static void writeTimestamp(DataOutputStream out,
+			Printable printable) throws IOException {
+		Long timestamp = printable.getTimestamp();
+		out.writeBoolean(timestamp != null);
+		if (timestamp != null) {
+			out.writeLong(timestamp);
+		}
+	}
+
+	private static void readTimestamp(DataInputStream in, Printable printable)
+			throws IOException {
+		if (in.readBoolean()) {
+			printable.setTimestamp(in.readLong());
+		}
+	}
+
+	private static void writeResults(DataOutputStream out, Results result)
+			throws IOException {
+		for (MedalCategories medal : MEDALS) {
+			out.writeByte(result.getTeam(medal).ordinal());
+		}
+		writeTimestamp(out, result);
+	}
+
+	private static Results readResults(DataInputStream in) throws IOException {
+		ArrayList<NationCategories> winners = new ArrayList<NationCategories>();
+		for (int i = 0; i < MEDALS.length; i++) {
+			winners.add(readNation(in));
+		}
+		Results result = new Results(winners);
+		readTimestamp(in, result);
+		return result;
+	}
+
+	private static void writeTally(DataOutputStream out, Tally tally)
+			throws IOException {
+		for (MedalCategories medal : MEDALS) {
+			out.writeInt(tally.getMedalCount(medal));
+		}
+		writeTimestamp(out, tally);
+	}
+
+	private static Tally readTally(DataInputStream in) throws IOException {
+		Tally tally = new Tally();
+		for (MedalCategories medal : MEDALS) {
+			tally.setMedalCount(medal, in.readInt());
+		}
+		readTimestamp(in, tally);
+		return tally;
+	}
+
+	private static void writeAthletes(DataOutputStream out,
+			List<Athlete> athletes) throws IOException {
+		out.writeInt(athletes.size());
+		for (Athlete athlete : athletes) {
+			out.writeUTF(athlete.getName());
+			out.writeByte(athlete.getNationality().ordinal());
+			out.writeByte(athlete.getEvent().ordinal());
+			out.writeInt(athlete.getScore());
+			writeTimestamp(out, athlete);
+		}
+	}
+
+	private static List<Athlete> readAthletes(DataInputStream in)
+			throws IOException {
+		int count = in.readInt();
+		List<Athlete> athletes = new ArrayList<Athlete>(count);
+		for (int i = 0; i < count; i++) {
+			String name = in.readUTF();
+			NationCategories nationality = readNation(in);
+			EventCategories event = readEvent(in);
+			Athlete athlete = new Athlete(name, nationality, event,
+					in.readInt());
+			readTimestamp(in, athlete);
+			athletes.add(athlete);
+		}
+		return athletes;
+	}
+
+	/**
+	 * Helper to write a frame whose body starts with a request ID and a
+	 * single byte (opcode or status).
+	 */
+	private static class FrameWriter {
+		private ByteArrayOutputStream bytes;
+		private DataOutputStream out;
+
+		public FrameWriter(int requestId, byte type) throws IOException {
+			this.bytes = new ByteArrayOutputStream(64);
+			this.out = new DataOutputStream(this.bytes);
+			this.out.writeInt(0);
+			this.out.writeInt(requestId);
+			this.out.writeByte(type);
+		}
+
+		public ByteBuffer toFrame() throws IOException {
+			this.out.flush();
+			ByteBuffer frame = ByteBuffer.wrap(this.bytes.toByteArray());
+			frame.putInt(0, frame.limit() - FRAME_HEADER_LENGTH);
+			return frame;
+		}
+	}
+}
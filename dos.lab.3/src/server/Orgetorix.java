@@ -6,9 +6,6 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.rmi.RemoteException;
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
-import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -18,10 +15,13 @@ import java.util.Set;
 import java.util.UUID;
 
 import util.BullyElectedBerkeleySynchronized;
+import util.MetricsInterface;
 import util.RegistryService;
+import util.UpdateSequencer;
 import base.Athlete;
 import base.Event;
 import base.EventCategories;
+import base.EventUpdate;
 import base.MedalCategories;
 import base.NationCategories;
 import base.OlympicException;
@@ -37,7 +37,7 @@ import base.Tally;
  * 
  */
 public class Orgetorix extends BullyElectedBerkeleySynchronized implements
-		OrgetorixInterface {
+		OrgetorixInterface, MetricsInterface {
 	private static String JAVA_RMI_HOSTNAME_PROPERTY = "java.rmi.server.hostname";
 	private static String FILE_LOCATION = "./";
 	private static String ORGETORIX_SERVICE_NAME = "Orgetorix";
@@ -50,12 +50,16 @@ public class Orgetorix extends BullyElectedBerkeleySynchronized implements
 	private String scoreFileName;
 	private String dbName;
 
+	// Sequence numbers of the updates applied to the database.
+	private UpdateSequencer appliedUpdates;
+
 	public Orgetorix(String serviceFinderHost, int serviceFinderPort) {
 		super(ORGETORIX_SERVICE_NAME, serviceFinderHost, serviceFinderPort);
 		this.dbName = UUID.randomUUID().toString();
 		this.resultFileName = FILE_LOCATION + "Results" + this.dbName;
 		this.tallyFileName = FILE_LOCATION + "Tallies" + this.dbName;
 		this.scoreFileName = FILE_LOCATION + "Scores" + this.dbName;
+		this.appliedUpdates = new UpdateSequencer();
 		try {
 			this.initializeDatabase();
 		} catch (RemoteException e) {
@@ -65,55 +69,40 @@ public class Orgetorix extends BullyElectedBerkeleySynchronized implements
 
 	/**
 	 * Initializes the database with empty records of scores, results and
-	 * tallies.
+	 * tallies. Records are versioned with timestamps of the hybrid logical
+	 * clock.
 	 * 
 	 * @throws RemoteException
 	 */
 	private void initializeDatabase() throws RemoteException {
 		this.writeToDatabase(new HashSet<Event>(), this.resultFileName);
+		long version = this.hybridClock.now();
 		Map<NationCategories, Tally> medalTallies = new HashMap<NationCategories, Tally>();
 		for (NationCategories nation : NationCategories.values()) {
 			medalTallies.put(nation, new Tally());
-			medalTallies.get(nation).setTimestamp(this.getTime());
+			medalTallies.get(nation).setTimestamp(version);
 		}
 		this.writeToDatabase(medalTallies, this.tallyFileName);
 		Map<EventCategories, ArrayList<Athlete>> scores = new HashMap<EventCategories, ArrayList<Athlete>>();
 		for (EventCategories event : EventCategories.values()) {
 			scores.put(event, new ArrayList<Athlete>());
-			for (Athlete athleteScore : scores.get(event)) {
-				athleteScore.setTimestamp(this.getTime());
-			}
 		}
 		this.writeToDatabase(scores, this.scoreFileName);
 	}
 
-	/**
-	 * Updates the results and tallies of a specified event in the database.
-	 * 
-	 * @param simulatedEvent
-	 * @throws RemoteException
-	 */
-	@Override
-	public void updateResultsAndTallies(Event simulatedEvent)
-			throws RemoteException {
-		updateResults(simulatedEvent);
-		updateMedalTallies(simulatedEvent.getResult());
-	}
-
 	/**
 	 * Updates the results of a specified event in the database.
 	 * 
 	 * @param completedEvent
+	 * @param version
 	 * @throws RemoteException
 	 */
-	private void updateResults(Event completedEvent) throws RemoteException {
+	private void updateResults(Event completedEvent, long version)
+			throws RemoteException {
 		Set<Event> completedEvents = readResultFile();
+		completedEvent.getResult().setTimestamp(version);
 		completedEvents.add(completedEvent);
 
-		for (Event event : completedEvents) {
-			event.getResult().setTimestamp(this.getTime());
-		}
-
 		writeToDatabase(completedEvents, this.resultFileName);
 	}
 
@@ -121,41 +110,103 @@ public class Orgetorix extends BullyElectedBerkeleySynchronized implements
 	 * Updates the medal tallies in the database at the end of an event.
 	 * 
 	 * @param eventResult
+	 * @param version
 	 * @throws RemoteException
 	 */
-	private void updateMedalTallies(Results eventResult) throws RemoteException {
+	private void updateMedalTallies(Results eventResult, long version)
+			throws RemoteException {
 		Map<NationCategories, Tally> medalTallies = readTallyFile();
 		for (MedalCategories medalType : MedalCategories.values()) {
-			medalTallies.get(eventResult.getTeam(medalType)).incrementTally(
-					medalType);
-		}
-
-		for (NationCategories nation : medalTallies.keySet()) {
-			medalTallies.get(nation).setTimestamp(this.getTime());
+			Tally tally = medalTallies.get(eventResult.getTeam(medalType));
+			tally.incrementTally(medalType);
+			tally.setTimestamp(version);
 		}
 
 		writeToDatabase(medalTallies, this.tallyFileName);
 	}
 
 	/**
-	 * Updates the current scores for a specified event type in the database.
+	 * Writes the current scores for a specified event type to the database.
+	 * Scores are only replaced by scores with a newer version, so that
+	 * conflicting writes from different sources or replicas resolve to the
+	 * latest one whatever order they arrive in.
 	 * 
 	 * @param eventType
 	 * @param currentScores
+	 * @param version
 	 * @throws RemoteException
 	 */
-	@Override
-	public void updateCurrentScores(EventCategories eventType,
-			List<Athlete> currentScores) throws RemoteException {
+	private void writeCurrentScores(EventCategories eventType,
+			List<Athlete> currentScores, long version) throws RemoteException {
 		Map<EventCategories, ArrayList<Athlete>> scores = readScoreFile();
-		for (Athlete athleteScore : currentScores) {
-			athleteScore.setTimestamp(this.getTime());
+		ArrayList<Athlete> storedScores = scores.get(eventType);
+		if (storedScores != null && !storedScores.isEmpty()) {
+			Long storedVersion = storedScores.get(0).getTimestamp();
+			if (storedVersion != null && storedVersion > version) {
+				this.metrics.incrementCounter("updates.superseded");
+				return;
+			}
 		}
-		scores.put(eventType, (ArrayList<Athlete>) currentScores);
+		ArrayList<Athlete> eventScores = new ArrayList<Athlete>(currentScores);
+		for (Athlete athleteScore : eventScores) {
+			athleteScore.setTimestamp(version);
+		}
+		scores.put(eventType, eventScores);
 
 		writeToDatabase(scores, this.scoreFileName);
 	}
 
+	/**
+	 * Applies a sequenced update relayed through Obelix. Duplicates of an
+	 * update that has already been applied, and updates older than the last
+	 * one applied for the same event, are ignored, so that redelivered updates
+	 * do not count medals twice or overwrite newer scores. Updates are applied
+	 * one at a time.
+	 * 
+	 * @param update
+	 * @throws RemoteException
+	 */
+	@Override
+	public void applyUpdate(EventUpdate update) throws RemoteException {
+		long startTime = System.nanoTime();
+		try {
+			synchronized (this.appliedUpdates) {
+				if (!this.appliedUpdates.isNew(update)) {
+					this.metrics.incrementCounter("updates.ignored");
+					return;
+				}
+				long version = this.getVersion(update);
+				if (update.isResultUpdate()) {
+					updateResults(update.getCompletedEvent(), version);
+					updateMedalTallies(update.getCompletedEvent().getResult(),
+							version);
+				} else {
+					writeCurrentScores(update.getEventName(),
+							update.getScores(), version);
+				}
+				this.appliedUpdates.markApplied(update);
+			}
+		} finally {
+			this.metrics.recordLatency("applyUpdate", startTime);
+		}
+	}
+
+	/**
+	 * Utility function to retrieve the version of an update, merging it into
+	 * the hybrid logical clock. Updates without a version are versioned on
+	 * receipt.
+	 * 
+	 * @param update
+	 * @return The version of the update.
+	 */
+	private long getVersion(EventUpdate update) {
+		if (update.getVersion() == 0) {
+			return this.hybridClock.now();
+		}
+		this.hybridClock.update(update.getVersion());
+		return update.getVersion();
+	}
+
 	/**
 	 * Retreives the medal tally for a specific team name from the database.
 	 * 
@@ -166,9 +217,14 @@ public class Orgetorix extends BullyElectedBerkeleySynchronized implements
 	@Override
 	public Tally getMedalTally(NationCategories teamName)
 			throws RemoteException {
-		Map<NationCategories, Tally> medalTallies = readTallyFile();
-		return medalTallies.get(teamName);
+		long startTime = System.nanoTime();
+		try {
+			Map<NationCategories, Tally> medalTallies = readTallyFile();
+			return medalTallies.get(teamName);
 
+		} finally {
+			this.metrics.recordLatency("getMedalTally", startTime);
+		}
 	}
 
 	/**
@@ -180,13 +236,18 @@ public class Orgetorix extends BullyElectedBerkeleySynchronized implements
 	 */
 	@Override
 	public Results getResults(EventCategories eventName) throws RemoteException {
-		Set<Event> completedEvents = readResultFile();
-		for (Event event : completedEvents) {
-			if (event.getName() == eventName) {
-				return event.getResult();
+		long startTime = System.nanoTime();
+		try {
+			Set<Event> completedEvents = readResultFile();
+			for (Event event : completedEvents) {
+				if (event.getName() == eventName) {
+					return event.getResult();
+				}
 			}
+			return null;
+		} finally {
+			this.metrics.recordLatency("getResults", startTime);
 		}
-		return null;
 	}
 
 	/**
@@ -199,8 +260,13 @@ public class Orgetorix extends BullyElectedBerkeleySynchronized implements
 	@Override
 	public List<Athlete> getCurrentScores(EventCategories eventName)
 			throws RemoteException {
-		Map<EventCategories, ArrayList<Athlete>> scores = readScoreFile();
-		return scores.get(eventName);
+		long startTime = System.nanoTime();
+		try {
+			Map<EventCategories, ArrayList<Athlete>> scores = readScoreFile();
+			return scores.get(eventName);
+		} finally {
+			this.metrics.recordLatency("getCurrentScores", startTime);
+		}
 	}
 
 	/**
@@ -290,26 +356,10 @@ public class Orgetorix extends BullyElectedBerkeleySynchronized implements
 	 */
 	private void setupOrgetorixServer(RegistryService regService)
 			throws IOException, OlympicException {
-		Registry registry = null;
-
 		this.register(ORGETORIX_SERVICE_NAME, regService.getLocalIPAddress(),
 				JAVA_RMI_PORT);
-		OrgetorixInterface serverStub = (OrgetorixInterface) UnicastRemoteObject
-				.exportObject(Orgetorix.getOrgetorixInstance(), 0);
-		try {
-			registry = LocateRegistry.getRegistry(JAVA_RMI_PORT);
-			registry.rebind(this.getServerName(), serverStub);
-			System.err.println("Registry Service running at "
-					+ regService.getLocalIPAddress() + ":" + JAVA_RMI_PORT
-					+ ".");
-			System.err.println("Orgetorix ready.");
-		} catch (RemoteException e) {
-			registry = regService.setupLocalRegistry(JAVA_RMI_PORT);
-//			registry = LocateRegistry.getRegistry(JAVA_RMI_PORT);
-			registry.rebind(this.getServerName(), serverStub);
-			System.err
-					.println("New Registry Service created. Orgetorix ready.");
-		}
+		this.bindServer(Orgetorix.getOrgetorixInstance(), JAVA_RMI_PORT);
+		System.err.println("Orgetorix ready.");
 	}
 
 	public static void main(String[] args) throws OlympicException {
@@ -325,6 +375,7 @@ public class Orgetorix extends BullyElectedBerkeleySynchronized implements
 			System.setProperty(JAVA_RMI_HOSTNAME_PROPERTY,
 					regService.getLocalIPAddress());
 			orgetorixInstance.setupOrgetorixServer(regService);
+			orgetorixInstance.watchParticipants();
 			orgetorixInstance.initiateElection();
 		} catch (IOException e) {
 			throw new OlympicException(
@@ -5,18 +5,14 @@ import java.rmi.RemoteException;
 import java.util.List;
 
 import base.Athlete;
-import base.Event;
 import base.EventCategories;
+import base.EventUpdate;
 import base.NationCategories;
 import base.Results;
 import base.Tally;
 
 public interface OrgetorixInterface extends Remote {
-	public void updateResultsAndTallies(Event simulatedEvent)
-			throws RemoteException;
-
-	public void updateCurrentScores(EventCategories eventType,
-			List<Athlete> currentScores) throws RemoteException;
+	public void applyUpdate(EventUpdate update) throws RemoteException;
 
 	public Tally getMedalTally(NationCategories teamName)
 			throws RemoteException;
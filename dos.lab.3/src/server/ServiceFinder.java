@@ -1,36 +1,119 @@
 package server;
 
 import java.io.IOException;
+import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
-import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
 
+import util.HybridLogicalClock;
+import util.MembershipDelta;
+import util.MembershipListener;
+import util.MetricsInterface;
+import util.MetricsRegistry;
+import util.MetricsSnapshot;
 import util.RegistryService;
 import util.ServerDetail;
+import util.ServiceFinderReplicas;
+import util.TaskExecutors;
+import util.TransportProvider;
 import base.OlympicException;
 
 /**
- * Encapsulates a centralized service discovery process.
+ * Encapsulates a service discovery process. Several replicas may be run, each
+ * given the addresses of the others; clients can register with and look up
+ * services on any of them. Every replica periodically sends its registration
+ * records to the others, which merge them, so that all replicas converge on
+ * the same membership within a replication interval.
  * 
  * @author aravind
  * 
  */
-public class ServiceFinder implements ServiceFinderInterface {
+public class ServiceFinder implements ServiceFinderInterface,
+		MetricsInterface {
 
 	private static Random random;
 	private static ServiceFinder serviceFinderInstance;
 	private static String JAVA_RMI_HOSTNAME_PROPERTY = "java.rmi.server.hostname";
 	private static int JAVA_RMI_PORT;
 	private static int DEFAULT_JAVA_RMI_PORT = 1099;
+	private static long LOAD_REPORT_TIMEOUT = 5000;
+	private static long LEASE_DURATION = 10000;
 
-	private List<ServerDetail> services = new ArrayList<ServerDetail>();
+	private static String SERVER_NAME = "ServiceFinder";
+
+	/**
+	 * Registered servers indexed by service name. Each entry holds an
+	 * immutable snapshot of the servers and its version, and is replaced as a
+	 * whole when the membership changes, so lookups read it without locking
+	 * and never wait for registrations.
+	 */
+	private ConcurrentMap<String, ServiceMembers> services = new ConcurrentHashMap<String, ServiceMembers>();
+	private static ServiceMembers NO_MEMBERS = new ServiceMembers(
+			Collections.<ServerDetail> emptyList(), 0);
+
+	/**
+	 * Listeners notified of membership changes, by service name and then by
+	 * the server name of the watcher.
+	 */
+	private ConcurrentMap<String, ConcurrentMap<String, MembershipListener>> watchers = new ConcurrentHashMap<String, ConcurrentMap<String, MembershipListener>>();
+	private ExecutorService membershipPushExecutor = TaskExecutors
+			.newTaskExecutor("MembershipPush");
+
+	/**
+	 * Registration records of all servers, keyed by server name. Servers renew
+	 * their lease with heartbeats; a server whose lease expires is evicted.
+	 */
+	private ConcurrentMap<String, ServiceRegistration> registrations = new ConcurrentHashMap<String, ServiceRegistration>();
+
+	/**
+	 * Stamps registration records, so that records from different replicas
+	 * are ordered without relying on their wall clocks agreeing.
+	 */
+	private HybridLogicalClock hybridClock = new HybridLogicalClock();
+
+	/**
+	 * Addresses (host:port) of the other replicas, and the stubs used to reach
+	 * them.
+	 */
+	private List<String> peerAddresses = new ArrayList<String>();
+	private ConcurrentMap<String, ServiceFinderInterface> peerStubs = new ConcurrentHashMap<String, ServiceFinderInterface>();
+	private MetricsRegistry metrics;
 
 	public ServiceFinder() {
 		random = new Random();
+		this.metrics = new MetricsRegistry(SERVER_NAME);
+		this.metrics.registerGauge("services.registered",
+				new MetricsRegistry.Gauge() {
+
+					@Override
+					public long getValue() {
+						long registered = 0;
+						for (ServiceMembers members : services.values()) {
+							registered += members.instances.size();
+						}
+						return registered;
+					}
+				});
+		this.metrics.registerGauge("membership.watchers",
+				new MetricsRegistry.Gauge() {
+
+					@Override
+					public long getValue() {
+						long watching = 0;
+						for (Map<String, MembershipListener> serviceWatchers : watchers
+								.values()) {
+							watching += serviceWatchers.size();
+						}
+						return watching;
+					}
+				});
 	}
 
 	public static void main(String[] args) throws OlympicException {
@@ -38,11 +121,16 @@ public class ServiceFinder implements ServiceFinderInterface {
 				.parseInt(args[0]);
 		ServiceFinder serviceFinderInstance = ServiceFinder
 				.getServiceFinderInstance();
+		if (args.length >= 2) {
+			serviceFinderInstance.setPeers(args[1]);
+		}
 		try {
 			RegistryService regService = new RegistryService();
 			System.setProperty(JAVA_RMI_HOSTNAME_PROPERTY,
 					regService.getLocalIPAddress());
 			serviceFinderInstance.setupServiceFinder(regService);
+			serviceFinderInstance.setupLeaseEvictionThread();
+			serviceFinderInstance.setupReplicationThread();
 		} catch (IOException e) {
 			throw new OlympicException(
 					"Registry Service could not be created.", e);
@@ -66,30 +154,51 @@ public class ServiceFinder implements ServiceFinderInterface {
 	 */
 	private void setupServiceFinder(RegistryService regService)
 			throws IOException, OlympicException {
-		Registry registry = null;
-		String SERVER_NAME = "ServiceFinder";
-		ServiceFinderInterface serverStub = null;
+		TransportProvider.getTransport().bind(SERVER_NAME,
+				ServiceFinder.getServiceFinderInstance(), JAVA_RMI_PORT);
+		System.err.println("ServiceFinder ready.");
+	}
 
-		try {
-			serverStub = (ServiceFinderInterface) UnicastRemoteObject
-					.exportObject(ServiceFinder.getServiceFinderInstance(), 0);
-			registry = LocateRegistry.getRegistry(JAVA_RMI_PORT);
-			registry.rebind(SERVER_NAME, serverStub);
-			System.err.println("Registry Service running at "
-					+ regService.getLocalIPAddress() + ":" + JAVA_RMI_PORT
-					+ ".");
-			System.err.println("ServiceFinder ready.");
-		} catch (RemoteException e) {
-			registry = regService.setupLocalRegistry(JAVA_RMI_PORT);
-//			registry = LocateRegistry.getRegistry(JAVA_RMI_PORT);
-			registry.rebind(SERVER_NAME, serverStub);
-			System.err
-					.println("New Registry Service created. ServiceFinder ready.");
+	/**
+	 * Sets the other replicas of ServiceFinder.
+	 * 
+	 * @param peers
+	 *            Comma separated list of host:port addresses.
+	 */
+	private void setPeers(String peers) {
+		for (String peerAddress : peers.split(",")) {
+			if (peerAddress.trim().length() > 0) {
+				this.peerAddresses.add(peerAddress.trim());
+			}
 		}
 	}
 
 	/**
-	 * Registers a server offering a specified service.
+	 * Sets up a thread that periodically sends the registration records to
+	 * the other replicas, if there are any.
+	 */
+	private void setupReplicationThread() {
+		if (this.peerAddresses.isEmpty()) {
+			return;
+		}
+		TaskExecutors.startBackgroundTask("ServiceReplicationThread",
+				new ServiceReplicator(this));
+		System.err.println("Replicating to " + this.peerAddresses + ".");
+	}
+
+	/**
+	 * Sets up a thread that periodically evicts servers whose lease has
+	 * expired.
+	 */
+	private void setupLeaseEvictionThread() {
+		TaskExecutors.startBackgroundTask("LeaseEvictionThread",
+				new LeaseEvictor(this));
+	}
+
+	/**
+	 * Registers a server offering a specified service and grants it a lease.
+	 * A server registering again under the same PID replaces its earlier
+	 * registration. Watchers of the service are notified of the change.
 	 * 
 	 * @param serviceName
 	 * @param PID
@@ -98,45 +207,549 @@ public class ServiceFinder implements ServiceFinderInterface {
 	@Override
 	public void registerService(String serviceName, int PID, String address,
 			int rmiPort) throws RemoteException {
-		synchronized (this.services) {
-			this.services.add(new ServerDetail(serviceName, PID, address,
-					rmiPort));
+		long startTime = System.nanoTime();
+		try {
+			ServerDetail newService = new ServerDetail(serviceName, PID,
+					address, rmiPort);
+			this.registrations.put(newService.getServerName(),
+					ServiceRegistration.registration(newService,
+							this.hybridClock.now(), System.currentTimeMillis()
+									+ LEASE_DURATION));
+			this.addService(newService);
+		} finally {
+			this.metrics.recordLatency("registerService", startTime);
+		}
+	}
+
+	/**
+	 * Utility function to add a server to the snapshot of its service,
+	 * replacing any earlier registration under the same PID, and notify the
+	 * watchers of the service.
+	 * 
+	 * @param newService
+	 */
+	private void addService(ServerDetail newService) {
+		String serviceName = newService.getServiceName();
+		int PID = newService.getPID();
+		while (true) {
+			ServiceMembers members = this.services.get(serviceName);
+			List<ServerDetail> newInstances = new ArrayList<ServerDetail>();
+			long version = 0;
+			if (members != null) {
+				version = members.version;
+				for (ServerDetail curServerDetail : members.instances) {
+					if (curServerDetail.getPID() != PID) {
+						newInstances.add(curServerDetail);
+					}
+				}
+			}
+			newInstances.add(newService);
+			ServiceMembers newMembers = new ServiceMembers(
+					Collections.unmodifiableList(newInstances), version + 1);
+			if (members == null ? this.services.putIfAbsent(serviceName,
+					newMembers) == null : this.services.replace(
+					serviceName, members, newMembers)) {
+				this.notifyWatchers(MembershipDelta.change(serviceName,
+						newMembers.version,
+						Collections.singletonList(newService),
+						Collections.<String> emptyList()));
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Renews the lease of a registered server.
+	 * 
+	 * @param serviceName
+	 * @param PID
+	 * @return False if the server is not registered, in which case it must
+	 *         register again.
+	 */
+	@Override
+	public boolean renewLease(String serviceName, int PID)
+			throws RemoteException {
+		long startTime = System.nanoTime();
+		try {
+			return this.extendLease(serviceName + PID);
+		} finally {
+			this.metrics.recordLatency("renewLease", startTime);
+		}
+	}
+
+	/**
+	 * Removes the registration of a server that is shutting down.
+	 * 
+	 * @param serviceName
+	 * @param PID
+	 */
+	@Override
+	public void deregisterService(String serviceName, int PID)
+			throws RemoteException {
+		long startTime = System.nanoTime();
+		try {
+			String serverName = serviceName + PID;
+			ServiceRegistration previous = this.registrations.put(serverName,
+					ServiceRegistration.deregistration(serverName,
+							this.hybridClock.now(), System.currentTimeMillis()
+									+ LEASE_DURATION));
+			if (previous != null && !previous.isDeregistration()) {
+				this.removeService(previous.getDetail());
+				this.metrics.incrementCounter("services.deregistered");
+			}
+		} finally {
+			this.metrics.recordLatency("deregisterService", startTime);
+		}
+	}
+
+	/**
+	 * Registers a listener to be notified of every change to the servers
+	 * offering the specified service. Watching a service again replaces the
+	 * earlier listener of the same watcher. A watcher stops being notified
+	 * when a notification fails or when its own registration is removed.
+	 * 
+	 * @param serviceName
+	 * @param watcherName
+	 *            Server name of the watcher.
+	 * @param listener
+	 * @return A snapshot of the current membership of the service.
+	 */
+	@Override
+	public MembershipDelta watchService(String serviceName,
+			String watcherName, MembershipListener listener)
+			throws RemoteException {
+		long startTime = System.nanoTime();
+		try {
+			ConcurrentMap<String, MembershipListener> serviceWatchers = this.watchers
+					.get(serviceName);
+			if (serviceWatchers == null) {
+				ConcurrentMap<String, MembershipListener> newWatchers = new ConcurrentHashMap<String, MembershipListener>();
+				serviceWatchers = this.watchers.putIfAbsent(serviceName,
+						newWatchers);
+				if (serviceWatchers == null) {
+					serviceWatchers = newWatchers;
+				}
+			}
+			serviceWatchers.put(watcherName, listener);
+			ServiceMembers members = this.services.get(serviceName);
+			if (members == null) {
+				members = NO_MEMBERS;
+			}
+			return MembershipDelta.snapshot(serviceName, members.version,
+					members.instances);
+		} finally {
+			this.metrics.recordLatency("watchService", startTime);
+		}
+	}
+
+	/**
+	 * Pushes a membership change to all watchers of the service. Watchers are
+	 * notified asynchronously, so a change may reach a watcher after a later
+	 * one; the version carried by the change lets the watcher detect this.
+	 * 
+	 * @param delta
+	 */
+	private void notifyWatchers(final MembershipDelta delta) {
+		final ConcurrentMap<String, MembershipListener> serviceWatchers = this.watchers
+				.get(delta.getServiceName());
+		if (serviceWatchers == null) {
+			return;
+		}
+		for (final Map.Entry<String, MembershipListener> watcher : serviceWatchers
+				.entrySet()) {
+			this.membershipPushExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						watcher.getValue().membershipChanged(delta);
+						metrics.incrementCounter("membership.pushed");
+					} catch (Exception e) {
+						serviceWatchers.remove(watcher.getKey(),
+								watcher.getValue());
+						metrics.incrementCounter("membership.pushFailed");
+						System.err.println("Could not notify "
+								+ watcher.getKey() + " of membership change.");
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Evicts every server whose lease has expired.
+	 */
+	void evictExpiredServices() {
+		long now = System.currentTimeMillis();
+		for (ServiceRegistration registration : this.registrations.values()) {
+			if (registration.getExpiryTime() < now
+					&& this.registrations.remove(registration.getServerName(),
+							registration)
+					&& !registration.isDeregistration()) {
+				this.removeService(registration.getDetail());
+				this.metrics.incrementCounter("services.evicted");
+				System.err.println("Evicted " + registration.getServerName()
+						+ ".");
+			}
+		}
+	}
+
+	/**
+	 * Merges the registration records sent by another replica. Records whose
+	 * lease has already expired are ignored, so that a server evicted here is
+	 * not brought back by a replica that has not evicted it yet. The stamp of
+	 * every record received is merged into the local clock, so that a later
+	 * registration here is stamped after it.
+	 * 
+	 * @param remoteRegistrations
+	 */
+	@Override
+	public void mergeRegistrations(List<ServiceRegistration> remoteRegistrations)
+			throws RemoteException {
+		long startTime = System.nanoTime();
+		try {
+			long now = System.currentTimeMillis();
+			for (ServiceRegistration remoteRegistration : remoteRegistrations) {
+				this.hybridClock.update(remoteRegistration.getStamp());
+				if (remoteRegistration.getExpiryTime() >= now) {
+					this.mergeRegistration(remoteRegistration);
+				}
+			}
+		} finally {
+			this.metrics.recordLatency("mergeRegistrations", startTime);
+		}
+	}
+
+	/**
+	 * Utility function to merge a single registration record. A record with a
+	 * more recent stamp replaces the local one; a record with the same stamp
+	 * only extends the lease and brings in a more recent load report.
+	 * 
+	 * @param remoteRegistration
+	 */
+	private void mergeRegistration(ServiceRegistration remoteRegistration) {
+		String serverName = remoteRegistration.getServerName();
+		while (true) {
+			ServiceRegistration localRegistration = this.registrations
+					.get(serverName);
+			if (localRegistration == null
+					|| remoteRegistration.getStamp() > localRegistration
+							.getStamp()) {
+				if (localRegistration == null ? this.registrations
+						.putIfAbsent(serverName, remoteRegistration) != null
+						: !this.registrations.replace(serverName,
+								localRegistration, remoteRegistration)) {
+					continue;
+				}
+				if (!remoteRegistration.isDeregistration()) {
+					this.addService(remoteRegistration.getDetail());
+				} else if (localRegistration != null
+						&& !localRegistration.isDeregistration()) {
+					this.removeService(localRegistration.getDetail());
+				}
+				this.metrics.incrementCounter("replication.merged");
+				return;
+			}
+			if (remoteRegistration.getStamp() == localRegistration.getStamp()
+					&& !localRegistration.isDeregistration()) {
+				localRegistration.getDetail().mergeLoad(
+						remoteRegistration.getDetail());
+				if (remoteRegistration.getExpiryTime() > localRegistration
+						.getExpiryTime()
+						&& !this.registrations.replace(serverName,
+								localRegistration, localRegistration
+										.renew(remoteRegistration
+												.getExpiryTime()))) {
+					continue;
+				}
+			}
+			return;
+		}
+	}
+
+	/**
+	 * Sends all registration records to the other replicas.
+	 */
+	void replicateRegistrations() {
+		List<ServiceRegistration> snapshot = new ArrayList<ServiceRegistration>(
+				this.registrations.values());
+		for (String peerAddress : this.peerAddresses) {
+			long startTime = System.nanoTime();
+			try {
+				this.getPeerStub(peerAddress).mergeRegistrations(snapshot);
+				this.metrics.recordLatency("replicate", startTime);
+			} catch (Exception e) {
+				this.peerStubs.remove(peerAddress);
+				this.metrics.incrementCounter("replication.failed");
+				System.err.println("Could not replicate to " + peerAddress
+						+ ".");
+			}
+		}
+	}
+
+	/**
+	 * Utility function to retrieve the stub of another replica, looking it up
+	 * if there is none.
+	 * 
+	 * @param peerAddress
+	 * @return ServiceFinderInterface
+	 * @throws RemoteException
+	 * @throws NotBoundException
+	 */
+	private ServiceFinderInterface getPeerStub(String peerAddress)
+			throws RemoteException, NotBoundException {
+		ServiceFinderInterface peerStub = this.peerStubs.get(peerAddress);
+		if (peerStub == null) {
+			peerStub = TransportProvider.getTransport().lookup(
+					ServiceFinderReplicas.getHost(peerAddress),
+					ServiceFinderReplicas.getPort(peerAddress,
+							DEFAULT_JAVA_RMI_PORT), SERVER_NAME,
+					ServiceFinderInterface.class);
+			this.peerStubs.put(peerAddress, peerStub);
+		}
+		return peerStub;
+	}
+
+	/**
+	 * Utility function to extend the lease of a server, unless it has already
+	 * expired and been evicted.
+	 * 
+	 * @param serverName
+	 * @return True if the lease was extended.
+	 */
+	private boolean extendLease(String serverName) {
+		while (true) {
+			ServiceRegistration registration = this.registrations
+					.get(serverName);
+			if (registration == null || registration.isDeregistration()) {
+				return false;
+			}
+			if (this.registrations.replace(serverName, registration,
+					registration.renew(System.currentTimeMillis()
+							+ LEASE_DURATION))) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Utility function to remove a registration from the snapshot of its
+	 * service. Only the specified registration is removed, so that one made
+	 * again by the same server in the meantime is kept. The server also stops
+	 * watching other services, and watchers of its service are notified.
+	 * 
+	 * @param service
+	 */
+	private void removeService(ServerDetail service) {
+		for (Map<String, MembershipListener> serviceWatchers : this.watchers
+				.values()) {
+			serviceWatchers.remove(service.getServerName());
+		}
+		while (true) {
+			ServiceMembers members = this.services.get(service
+					.getServiceName());
+			if (members == null || !members.instances.contains(service)) {
+				return;
+			}
+			List<ServerDetail> newInstances = new ArrayList<ServerDetail>(
+					members.instances);
+			newInstances.remove(service);
+			ServiceMembers newMembers = new ServiceMembers(
+					Collections.unmodifiableList(newInstances),
+					members.version + 1);
+			if (this.services.replace(service.getServiceName(), members,
+					newMembers)) {
+				this.notifyWatchers(MembershipDelta.change(
+						service.getServiceName(), newMembers.version,
+						Collections.<ServerDetail> emptyList(),
+						Collections.singletonList(service.getServerName())));
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Records the latest load reported by a server. A load report also
+	 * renews the lease of the server.
+	 * 
+	 * @param serviceName
+	 * @param PID
+	 * @param inFlightRequests
+	 * @param averageLatency
+	 */
+	@Override
+	public void reportLoad(String serviceName, int PID, int inFlightRequests,
+			double averageLatency) throws RemoteException {
+		long startTime = System.nanoTime();
+		try {
+			for (ServerDetail curServerDetail : matchServices(serviceName)) {
+				if (curServerDetail.getPID() == PID) {
+					curServerDetail.updateLoad(inFlightRequests, averageLatency);
+				}
+			}
+			this.extendLease(serviceName + PID);
+		} finally {
+			this.metrics.recordLatency("reportLoad", startTime);
 		}
 	}
 
 	/**
 	 * Retrieves the service matching the specified service name. If multiple
-	 * servers offer same service, returns any one of them randomly, all having
+	 * servers offer same service, picks two of them at random and returns the
+	 * less loaded one (power of two choices). If either of them has not
+	 * reported its load recently, returns the first one, all servers having
 	 * equal chance to be selected.
 	 * 
-	 * @return The server details for the specified service name.
+	 * @return The server details for the specified service name, or null if
+	 *         no server offers it.
 	 * @param serviceName
 	 */
 	@Override
 	public ServerDetail getService(String serviceName) throws RemoteException {
-		List<ServerDetail> matchingServices = getServices(serviceName);
-		int num = random.nextInt(matchingServices.size());
-		ServerDetail pickedService = matchingServices.get(num);
-		System.out.println("Resolved " + serviceName + " to " + pickedService.getServerName() + ".");
-		return pickedService;
+		long startTime = System.nanoTime();
+		try {
+			List<ServerDetail> matchingServices = matchServices(serviceName);
+			if (matchingServices.isEmpty()) {
+				return null;
+			}
+			int num = random.nextInt(matchingServices.size());
+			ServerDetail pickedService = matchingServices.get(num);
+			if (matchingServices.size() > 1) {
+				int otherNum = random.nextInt(matchingServices.size() - 1);
+				if (otherNum >= num) {
+					otherNum++;
+				}
+				ServerDetail otherService = matchingServices.get(otherNum);
+				if (hasRecentLoad(pickedService) && hasRecentLoad(otherService)
+						&& otherService.getLoadScore() < pickedService
+								.getLoadScore()) {
+					pickedService = otherService;
+				}
+			}
+			System.out.println("Resolved " + serviceName + " to " + pickedService.getServerName() + ".");
+			return pickedService;
+		} finally {
+			this.metrics.recordLatency("getService", startTime);
+		}
+	}
+
+	/**
+	 * Utility function to check if a server has reported its load recently.
+	 * 
+	 * @param serverDetail
+	 * @return True if the load report is recent enough to be used.
+	 */
+	private boolean hasRecentLoad(ServerDetail serverDetail) {
+		return (System.currentTimeMillis() - serverDetail.getLoadReportTime()) < LOAD_REPORT_TIMEOUT;
 	}
 
 	/**
 	 * Retrieves all servers matching the specified service name.
 	 * 
-	 * @return The server details of all servers offering the specified service.
+	 * @return An immutable snapshot of the server details of all servers
+	 *         offering the specified service.
 	 */
 	@Override
 	public List<ServerDetail> getServices(String serviceName)
 			throws RemoteException {
-		List<ServerDetail> matchingServices = new ArrayList<ServerDetail>();
-		synchronized (this.services) {
-			for (ServerDetail curServerDetail : this.services) {
-				if (curServerDetail.getServiceName().equals(serviceName)) {
-					matchingServices.add(curServerDetail);
-				}
+		long startTime = System.nanoTime();
+		try {
+			return matchServices(serviceName);
+		} finally {
+			this.metrics.recordLatency("getServices", startTime);
+		}
+	}
+
+	/**
+	 * Utility function to retrieve the current snapshot of servers matching
+	 * the specified service name.
+	 * 
+	 * @param serviceName
+	 * @return An immutable list of the server details of all servers offering
+	 *         the specified service.
+	 */
+	private List<ServerDetail> matchServices(String serviceName) {
+		ServiceMembers members = this.services.get(serviceName);
+		return (members == null) ? NO_MEMBERS.instances : members.instances;
+	}
+
+	/**
+	 * Returns a snapshot of the metrics recorded by ServiceFinder.
+	 */
+	@Override
+	public MetricsSnapshot getMetrics() throws RemoteException {
+		return this.metrics.getSnapshot();
+	}
+
+	/**
+	 * The servers offering a service and the version of that membership,
+	 * which increases by one with every change.
+	 */
+	private static class ServiceMembers {
+		private List<ServerDetail> instances;
+		private long version;
+
+		public ServiceMembers(List<ServerDetail> instances, long version) {
+			this.instances = instances;
+			this.version = version;
+		}
+	}
+}
+
+/**
+ * Periodically evicts registrations whose lease has expired.
+ * 
+ * @author aravind
+ * 
+ */
+class LeaseEvictor implements Runnable {
+
+	private ServiceFinder serviceFinder;
+	private static int EVICTION_INTERVAL = 1000;
+
+	public LeaseEvictor(ServiceFinder serviceFinder) {
+		this.serviceFinder = serviceFinder;
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			serviceFinder.evictExpiredServices();
+
+			try {
+				Thread.sleep(EVICTION_INTERVAL);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
+
+/**
+ * Periodically sends the registration records of a ServiceFinder replica to
+ * the other replicas.
+ * 
+ * @author aravind
+ * 
+ */
+class ServiceReplicator implements Runnable {
+
+	private ServiceFinder serviceFinder;
+	private static int REPLICATION_INTERVAL = 1000;
+
+	public ServiceReplicator(ServiceFinder serviceFinder) {
+		this.serviceFinder = serviceFinder;
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			serviceFinder.replicateRegistrations();
+
+			try {
+				Thread.sleep(REPLICATION_INTERVAL);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
 			}
 		}
-		return matchingServices;
 	}
 }
@@ -4,6 +4,8 @@ import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.util.List;
 
+import util.MembershipDelta;
+import util.MembershipListener;
 import util.ServerDetail;
 
 public interface ServiceFinderInterface extends Remote {
@@ -12,6 +14,21 @@ public interface ServiceFinderInterface extends Remote {
 
 	public ServerDetail getService(String serviceName) throws RemoteException;
 
+	public void reportLoad(String serviceName, int PID, int inFlightRequests,
+			double averageLatency) throws RemoteException;
+
 	public List<ServerDetail> getServices(String serviceName)
 			throws RemoteException;
+
+	public boolean renewLease(String serviceName, int PID)
+			throws RemoteException;
+
+	public void deregisterService(String serviceName, int PID)
+			throws RemoteException;
+
+	public MembershipDelta watchService(String serviceName, String watcherName,
+			MembershipListener listener) throws RemoteException;
+
+	public void mergeRegistrations(List<ServiceRegistration> registrations)
+			throws RemoteException;
 }
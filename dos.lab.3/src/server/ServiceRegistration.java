@@ -0,0 +1,95 @@
+package server;
+
+import java.io.Serializable;
+
+import util.ServerDetail;
+
+/**
+ * Encapsulates the registration record of a server held by each
+ * {@link ServiceFinder} replica and exchanged between replicas. The stamp is
+ * the {@link util.HybridLogicalClock} timestamp of the latest registration or
+ * deregistration of the server, and the most recent one wins when replicas
+ * disagree, even if their wall clocks do not. Records with the same stamp
+ * are merged by keeping the latest lease expiry. A deregistration is kept as a
+ * record without a server detail until its lease expires, so that it reaches
+ * every replica. Records are immutable.
+ * 
+ * @author aravind
+ * 
+ */
+public class ServiceRegistration implements Serializable {
+	private static final long serialVersionUID = 4410625337912508196L;
+
+	private String serverName;
+	private ServerDetail detail;
+	private long stamp;
+	private long expiryTime;
+
+	private ServiceRegistration(String serverName, ServerDetail detail,
+			long stamp, long expiryTime) {
+		this.serverName = serverName;
+		this.detail = detail;
+		this.stamp = stamp;
+		this.expiryTime = expiryTime;
+	}
+
+	/**
+	 * Creates the record of a registration.
+	 * 
+	 * @param detail
+	 * @param stamp
+	 * @param expiryTime
+	 * @return ServiceRegistration
+	 */
+	public static ServiceRegistration registration(ServerDetail detail,
+			long stamp, long expiryTime) {
+		return new ServiceRegistration(detail.getServerName(), detail, stamp,
+				expiryTime);
+	}
+
+	/**
+	 * Creates the record of a deregistration.
+	 * 
+	 * @param serverName
+	 * @param stamp
+	 * @param expiryTime
+	 * @return ServiceRegistration
+	 */
+	public static ServiceRegistration deregistration(String serverName,
+			long stamp, long expiryTime) {
+		return new ServiceRegistration(serverName, null, stamp, expiryTime);
+	}
+
+	/**
+	 * @param expiryTime
+	 * @return A copy of the record with its lease extended to the specified
+	 *         time.
+	 */
+	public ServiceRegistration renew(long expiryTime) {
+		return new ServiceRegistration(this.serverName, this.detail,
+				this.stamp, expiryTime);
+	}
+
+	/**
+	 * General getters.
+	 */
+	public String getServerName() {
+		return this.serverName;
+	}
+
+	public ServerDetail getDetail() {
+		return this.detail;
+	}
+
+	public boolean isDeregistration() {
+		return this.detail == null;
+	}
+
+	public long getStamp() {
+		return this.stamp;
+	}
+
+	public long getExpiryTime() {
+		return this.expiryTime;
+	}
+}
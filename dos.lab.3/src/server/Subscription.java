@@ -1,20 +1,43 @@
 package server;
 
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import base.EventCategories;
 
 /**
  * Handles subscription to a particular event, with the name of the event and
- * the set of subscribers
+ * the set of subscribers. Each subscriber holds a lease that expires unless it
+ * is renewed, by a successful push, by a request of the subscriber or by
+ * subscribing again, so that only idle subscribers expire. The subscriber set
+ * is a concurrent map, so
+ * that pushes may iterate over it while subscribers are added and removed.
  * 
  * @author aravind
  * 
  */
 public class Subscription {
+	private static long DEFAULT_LEASE_DURATION = 5 * 60 * 1000;
+
 	private EventCategories eventName;
-	private Set<String> subscribers;
+	private ConcurrentMap<String, Long> subscribers;
+
+	/**
+	 * Subscribers that hold the full scores of the event, and may hence be
+	 * sent score deltas.
+	 */
+	private Set<String> synchronizedSubscribers;
+
+	public Subscription() {
+		this.subscribers = new ConcurrentHashMap<String, Long>();
+		this.synchronizedSubscribers = Collections
+				.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	}
 
 	/**
 	 * Returns the event category managed by this subscription.
@@ -26,12 +49,13 @@ public class Subscription {
 	}
 
 	/**
-	 * Returns the set of subscribers managed by this subscription.
+	 * Returns a live view of the set of subscribers managed by this
+	 * subscription.
 	 * 
 	 * @return Set<String>
 	 */
 	public Set<String> getSubscribers() {
-		return this.subscribers;
+		return this.subscribers.keySet();
 	}
 
 	/**
@@ -45,14 +69,100 @@ public class Subscription {
 
 	/**
 	 * Adds a particular subscriber to the set of subscribers for the event
-	 * managed by this subscription
+	 * managed by this subscription, or renews its lease if it is already
+	 * subscribed.
 	 * 
 	 * @param subscriber
 	 */
 	public void addSubscriber(String subscriber) {
-		if (subscribers == null) {
-			subscribers = new HashSet<String>();
+		addSubscriber(subscriber, DEFAULT_LEASE_DURATION);
+	}
+
+	/**
+	 * Adds a particular subscriber with a lease of the specified duration, or
+	 * renews its lease if it is already subscribed.
+	 * 
+	 * @param subscriber
+	 * @param leaseDuration
+	 *            Lease duration, in milliseconds.
+	 */
+	public void addSubscriber(String subscriber, long leaseDuration) {
+		this.subscribers.put(subscriber, System.currentTimeMillis()
+				+ leaseDuration);
+	}
+
+	/**
+	 * Renews the lease of a subscriber, if it is still subscribed.
+	 * 
+	 * @param subscriber
+	 */
+	public void renewSubscriber(String subscriber) {
+		Long expiryTime = this.subscribers.get(subscriber);
+		if (expiryTime != null) {
+			this.subscribers.replace(subscriber, expiryTime,
+					System.currentTimeMillis() + DEFAULT_LEASE_DURATION);
+		}
+	}
+
+	/**
+	 * Removes a particular subscriber from the set of subscribers.
+	 * 
+	 * @param subscriber
+	 * @return True if the subscriber was subscribed.
+	 */
+	public boolean removeSubscriber(String subscriber) {
+		this.synchronizedSubscribers.remove(subscriber);
+		return this.subscribers.remove(subscriber) != null;
+	}
+
+	/**
+	 * Records that a subscriber has been sent the full scores of the event.
+	 * 
+	 * @param subscriber
+	 */
+	public void markSynchronized(String subscriber) {
+		this.synchronizedSubscribers.add(subscriber);
+	}
+
+	/**
+	 * @param subscriber
+	 * @return True if the subscriber holds the full scores of the event.
+	 */
+	public boolean isSynchronized(String subscriber) {
+		return this.synchronizedSubscribers.contains(subscriber);
+	}
+
+	/**
+	 * @param subscriber
+	 * @return True if the subscriber is currently subscribed.
+	 */
+	public boolean hasSubscriber(String subscriber) {
+		return this.subscribers.containsKey(subscriber);
+	}
+
+	/**
+	 * Removes all subscribers whose lease has expired by the specified time.
+	 * 
+	 * @param currentTime
+	 * @return The subscribers removed.
+	 */
+	public List<String> expireSubscribers(long currentTime) {
+		List<String> expiredSubscribers = new ArrayList<String>();
+		for (Map.Entry<String, Long> subscriber : this.subscribers.entrySet()) {
+			if (subscriber.getValue() < currentTime
+					&& this.subscribers.remove(subscriber.getKey(),
+							subscriber.getValue())) {
+				this.synchronizedSubscribers.remove(subscriber.getKey());
+				expiredSubscribers.add(subscriber.getKey());
+			}
 		}
-		subscribers.add(subscriber);
+		return expiredSubscribers;
+	}
+
+	/**
+	 * @return The number of subscribers.
+	 */
+	public int size() {
+		return this.subscribers.size();
 	}
 }
@@ -3,15 +3,19 @@ package sim;
 import java.io.IOException;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import server.ServiceFinder;
 import server.ServiceFinderInterface;
 import util.LotteryManager;
+import util.MetricsInterface;
 import util.ServerDetail;
+import util.TaskExecutors;
+import util.TransportProvider;
 import base.EventCategories;
 import base.OlympicException;
 import client.Tablet;
@@ -61,17 +65,17 @@ public class TabletSimulator {
 	 */
 	private static void testTablets(List<Tablet> tablets)
 			throws InterruptedException, IOException {
-		List<Thread> threads = new ArrayList<Thread>();
-
+		List<Callable<Object>> testers = new ArrayList<Callable<Object>>();
 		for (Tablet tablet : tablets) {
-			TabletTester tester = new TabletTester(tablet);
-			Thread thread = new Thread(tester);
-			thread.start();
-			threads.add(thread);
+			testers.add(Executors.callable(new TabletTester(tablet)));
 		}
 
-		for (Thread thread : threads) {
-			thread.join();
+		ExecutorService testerExecutor = TaskExecutors
+				.newTaskExecutor("TabletTester");
+		try {
+			testerExecutor.invokeAll(testers);
+		} finally {
+			testerExecutor.shutdown();
 		}
 	}
 
@@ -82,9 +86,10 @@ public class TabletSimulator {
 	 * @param tablets
 	 * @throws RemoteException
 	 * @throws InterruptedException
+	 * @throws OlympicException
 	 */
 	private static void testProcessOrdering(List<Tablet> tablets)
-			throws RemoteException, InterruptedException {
+			throws RemoteException, InterruptedException, OlympicException {
 		Tablet.pollTally = false;
 		LotteryManager clientStub = getObelixFrontendClientStub();
 		clientStub.setLotteryEnterFrequency(PROCESS_ORDERING_TABLET_LIMIT);
@@ -109,6 +114,35 @@ public class TabletSimulator {
 		return getLotteryManagerClientStub(obelixDetail);
 	}
 
+	/**
+	 * Prints the metrics of every server offering the specified service.
+	 * 
+	 * @param serviceName
+	 * @throws RemoteException
+	 */
+	public static void printServiceMetrics(String serviceName)
+			throws RemoteException {
+		for (ServerDetail serverDetail : serviceFinderStub
+				.getServices(serviceName)) {
+			MetricsInterface clientStub = getMetricsClientStub(serverDetail);
+			if (clientStub != null) {
+				clientStub.getMetrics().printMetrics();
+			}
+		}
+	}
+
+	/**
+	 * Sets up a client stub of type MetricsInterface.
+	 * 
+	 * @param participant
+	 * @throws RemoteException
+	 */
+	private static MetricsInterface getMetricsClientStub(
+			ServerDetail participant) throws RemoteException {
+		return TransportProvider.getClientStub(participant,
+				MetricsInterface.class);
+	}
+
 	/**
 	 * Sets up a client stub of type BullyElectableFrontend.
 	 * 
@@ -117,17 +151,8 @@ public class TabletSimulator {
 	 */
 	private static LotteryManager getLotteryManagerClientStub(
 			ServerDetail participant) throws RemoteException {
-		Registry registry = null;
-		LotteryManager client = null;
-		registry = LocateRegistry.getRegistry(participant.getServiceAddress(),
-				participant.getServicePort());
-		try {
-			client = (LotteryManager) registry.lookup(participant
-					.getServerName());
-		} catch (NotBoundException e) {
-			e.printStackTrace();
-		}
-		return client;
+		return TransportProvider.getClientStub(participant,
+				LotteryManager.class);
 	}
 
 	/**
@@ -138,12 +163,11 @@ public class TabletSimulator {
 	 */
 	private static void setupServiceFinderStub(String serviceFinderHost,
 			int serviceFinderPort) throws OlympicException {
-		Registry registry = null;
 		try {
-			registry = LocateRegistry.getRegistry(serviceFinderHost,
-					serviceFinderPort);
-			TabletSimulator.serviceFinderStub = (ServiceFinderInterface) registry
-					.lookup(SERVICE_FINDER_NAME);
+			TabletSimulator.serviceFinderStub = TransportProvider
+					.getTransport().lookup(serviceFinderHost,
+							serviceFinderPort, SERVICE_FINDER_NAME,
+							ServiceFinderInterface.class);
 		} catch (Exception e) {
 			throw new OlympicException("Could not set up Service Finder Stub.");
 		}
@@ -165,6 +189,8 @@ public class TabletSimulator {
 		setupServiceFinderStub(serviceFinderHost, serviceFinderPort);
 		int numTablets = (args.length < 4) ? DEFAULT_TABLET_LIMIT : Integer
 				.parseInt(args[3]);
+		Tablet.useBinaryProtocol = (args.length >= 5)
+				&& args[4].equalsIgnoreCase("binary");
 		List<Tablet> tablets = createTablets(numTablets, serviceFinderHost,
 				serviceFinderPort);
 		try {
@@ -6,6 +6,7 @@ import java.rmi.RemoteException;
 import java.util.List;
 import java.util.Random;
 
+import util.LatencyHistogram;
 import util.LotteryManager;
 import base.EventCategories;
 import base.NationCategories;
@@ -30,6 +31,9 @@ public class TabletTester implements Runnable {
 	private static String OBELIX_SERVICE_NAME = "Obelix";
 	private static Boolean PRINTED_STATISTICS = false;
 
+	// Latency of requests made by all testers, in microseconds.
+	private static LatencyHistogram requestLatencies = new LatencyHistogram();
+
 	// Simulation parameters
 	private static int SLEEP_INTERVAL = 1000;
 	private static int MIN_REQUESTS = 20;
@@ -83,6 +87,7 @@ public class TabletTester implements Runnable {
 		long startTime = System.currentTimeMillis();
 		try {
 			for (int i = 0; i < numRequests; i++) {
+				long requestStartTime = System.nanoTime();
 				int requestNumber = rand.nextInt(CLIENT_PULL_REQUESTS_ONLY);
 				if (allowServerPush) {
 					requestNumber = rand.nextInt(ALL_REQUESTS);
@@ -105,6 +110,8 @@ public class TabletTester implements Runnable {
 					this.tabletInstance.subscribeTo(this.getEventType());
 					break;
 				}
+				requestLatencies
+						.record((System.nanoTime() - requestStartTime) / 1000);
 				Thread.sleep(SLEEP_INTERVAL);
 			}
 
@@ -120,6 +127,7 @@ public class TabletTester implements Runnable {
 						System.out.println(OBELIX_SERVICE_NAME
 								+ (serviceCounter++) + " load: " + load);
 					}
+					TabletSimulator.printServiceMetrics(OBELIX_SERVICE_NAME);
 				}
 			}
 
@@ -135,6 +143,8 @@ public class TabletTester implements Runnable {
 		System.out.println("Average latency : "
 				+ (endTime - startTime - SLEEP_INTERVAL * numRequests)
 				/ (double) this.numRequests);
+		System.out.println("Request latency : "
+				+ requestLatencies.getSnapshot());
 	}
 
 	/**
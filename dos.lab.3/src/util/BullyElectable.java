@@ -9,4 +9,6 @@ public interface BullyElectable extends Remote {
 	public void notifyAlive() throws RemoteException;
 
 	public void notifyVictory(String callerServerName) throws RemoteException;
+
+	public void notifyHeartbeat(String leaderServerName) throws RemoteException;
 }
@@ -1,41 +1,104 @@
 package util;
 
-import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Encapsulates an implementation for a Bully electable and Berkeley
  * Synchronizable server process.
  * 
+ * Election messages are sent concurrently and each must be delivered within
+ * MESSAGE_TIMEOUT, so that a dead or hung process cannot stall an election.
+ * The elected time server holds a leader lease, which it renews by sending
+ * heartbeats to the other processes; the other processes extend their view of
+ * the lease on every heartbeat and start a new election once it runs out. The
+ * time server's own lease ends LEADER_LEASE_MARGIN earlier than the others'
+ * view of it, so it stops correcting clocks before a successor is elected.
+ * 
  * @author aravind
  */
 public abstract class BullyElectedBerkeleySynchronized extends ServiceComponent
 		implements BullyElectable, BerkeleySynchronizable {
 
-	public long clockOffset = 0;
+	public volatile long clockOffset = 0;
 	// protected VectorClock timeStamp;
 	protected LamportClock timeStamp;
-	private String timeServerName;
+	protected HybridLogicalClock hybridClock;
+	private volatile String timeServerName;
+	private volatile long leaderLeaseExpiry = 0;
 	private static String[] serviceNames = { "Obelix", "Orgetorix" };
-	private volatile boolean electionEnded = false;
 	private static int INITIATOR_ID = -1;
+	private static long ELECTION_TIMEOUT = 5000;
+	private static long VICTORY_TIMEOUT = 15000;
+	private static int MAX_ELECTION_ROUNDS = 3;
+	private static long MESSAGE_TIMEOUT = 2000;
+	static long HEARTBEAT_INTERVAL = 1000;
+	private static long LEADER_LEASE_DURATION = 5000;
+	private static long LEADER_LEASE_MARGIN = 1000;
+	private static ExecutorService messengers = TaskExecutors
+			.newTaskExecutor("ElectionMessages");
+
+	/**
+	 * Counts of 'Alive' and victory messages received, guarded by the election
+	 * monitor. An election waits on the monitor for the counts to move past
+	 * the values they had when it started.
+	 */
+	private Object electionMonitor = new Object();
+	private long aliveMessages = 0;
+	private long victoryMessages = 0;
+	private AtomicBoolean electionInProgress = new AtomicBoolean(false);
+	private AtomicBoolean leaderMonitorStarted = new AtomicBoolean(false);
+	private AtomicBoolean synchronizerStarted = new AtomicBoolean(false);
+
+	/**
+	 * Outcomes of waiting for the end of an election.
+	 */
+	private enum ElectionOutcome {
+		VICTORY, NO_ANSWER, NO_VICTORY
+	}
+
+	/**
+	 * An election message sent to another process.
+	 */
+	private interface ElectionMessage {
+		public void sendTo(BullyElectable clientStub) throws RemoteException;
+	}
 
 	public BullyElectedBerkeleySynchronized(String serviceName,
 			String serviceFinderHost, int serviceFinderPort) {
 		super(serviceName, serviceFinderHost, serviceFinderPort);
 		// this.timeStamp = new VectorClock(this.PID);
 		this.timeStamp = new LamportClock();
+		this.hybridClock = new HybridLogicalClock();
 	}
 
+	/**
+	 * Runs an election and returns once it has ended. Also starts monitoring
+	 * the liveness of the elected time server.
+	 */
 	public void initiateElection() {
+		this.setupLeaderMonitorThread();
+		if (!this.electionInProgress.compareAndSet(false, true)) {
+			return;
+		}
 		try {
-			startElection(INITIATOR_ID);
+			this.runElection();
 		} catch (RemoteException e) {
 			e.printStackTrace();
+		} finally {
+			this.electionInProgress.set(false);
 		}
 	}
 
@@ -47,17 +110,7 @@ public abstract class BullyElectedBerkeleySynchronized extends ServiceComponent
 	 */
 	public BullyElectable getBullyElectableClientStub(ServerDetail participant)
 			throws RemoteException {
-		Registry registry = null;
-		BullyElectable client = null;
-		registry = LocateRegistry.getRegistry(participant.getServiceAddress(),
-				participant.getServicePort());
-		try {
-			client = (BullyElectable) registry.lookup(participant
-					.getServerName());
-		} catch (NotBoundException e) {
-			e.printStackTrace();
-		}
-		return client;
+		return this.getClientStub(participant, BullyElectable.class);
 	}
 
 	/**
@@ -68,17 +121,20 @@ public abstract class BullyElectedBerkeleySynchronized extends ServiceComponent
 	 */
 	BerkeleySynchronizable getBerkeleySynchronizableClientStub(
 			ServerDetail participant) throws RemoteException {
-		Registry registry = null;
-		BerkeleySynchronizable client = null;
-		registry = LocateRegistry.getRegistry(participant.getServiceAddress(),
-				participant.getServicePort());
-		try {
-			client = (BerkeleySynchronizable) registry.lookup(participant
-					.getServerName());
-		} catch (NotBoundException e) {
-			e.printStackTrace();
+		return this.getClientStub(participant, BerkeleySynchronizable.class);
+	}
+
+	/**
+	 * Watches the membership of the Obelix and Orgetorix services, so that
+	 * participants are found from a local view instead of a lookup on every
+	 * election, synchronization and multicast.
+	 * 
+	 * @throws RemoteException
+	 */
+	public void watchParticipants() throws RemoteException {
+		for (String serviceName : serviceNames) {
+			this.watchService(serviceName);
 		}
-		return client;
 	}
 
 	/**
@@ -114,82 +170,361 @@ public abstract class BullyElectedBerkeleySynchronized extends ServiceComponent
 
 	/**
 	 * Utility function to broadcast victory message at the end of the election.
-	 * Sets the current timeserver to the specified server name.
+	 * Sets the current timeserver to the specified server name and grants it
+	 * a leader lease.
 	 * 
 	 * @param callerServerName
 	 */
 	@Override
 	public void notifyVictory(String callerServerName) throws RemoteException {
-		this.timeServerName = callerServerName;
+		this.renewLeaderLease(callerServerName);
 		System.out.println("Elected time server: " + this.timeServerName);
+		synchronized (this.electionMonitor) {
+			this.victoryMessages++;
+			this.electionMonitor.notifyAll();
+		}
+	}
+
+	/**
+	 * Utility function to receive a heartbeat from the time server, extending
+	 * its leader lease.
+	 * 
+	 * @param leaderServerName
+	 */
+	@Override
+	public void notifyHeartbeat(String leaderServerName) throws RemoteException {
+		this.renewLeaderLease(leaderServerName);
 	}
 
 	/**
-	 * Implements leader election based on the Bully Election algorithm.
+	 * Implements leader election based on the Bully Election algorithm. Sends
+	 * an 'Alive' message to the caller and runs an election of its own in the
+	 * background, unless one is already running, so that the caller is not
+	 * held up for the duration of the election.
 	 * 
 	 * @param callerPID
 	 */
 	@Override
 	public void startElection(int callerPID) throws RemoteException {
-		List<ServerDetail> participants = findAllParticipants();
-		boolean foundParticipants = false;
-		for (ServerDetail participant : participants) {
-			System.out.println(participant.getServerName());
-			if (!participant.getServerName().equals(this.getServerName())) {
-				if (participant.getPID() == callerPID) {
-					System.out.println(callerPID);
-					BullyElectable clientStub = getBullyElectableClientStub(participant);
-					if (clientStub != null) {
-						System.out.println("Sending notifyAlive msg to "
-								+ participant.getServerName() + ".");
-						clientStub.notifyAlive();
-					}
-				} else if (participant.getPID() > this.PID) {
-					BullyElectable clientStub = getBullyElectableClientStub(participant);
-					if (clientStub != null) {
-						System.out.println("Sending startElection msg to "
-								+ participant.getServerName() + ".");
-						clientStub.startElection(this.PID);
-					}
-					foundParticipants = true;
+		if (callerPID != INITIATOR_ID) {
+			List<ServerDetail> callers = new ArrayList<ServerDetail>();
+			for (ServerDetail participant : findAllParticipants()) {
+				if (participant.getPID() == callerPID
+						&& !participant.getServerName().equals(
+								this.getServerName())) {
+					callers.add(participant);
+				}
+			}
+			for (ServerDetail caller : callers) {
+				System.out.println("Sending notifyAlive msg to "
+						+ caller.getServerName() + ".");
+			}
+			this.sendToAll(callers, new ElectionMessage() {
+				@Override
+				public void sendTo(BullyElectable clientStub)
+						throws RemoteException {
+					clientStub.notifyAlive();
 				}
+			});
+		}
+		this.startElectionInBackground();
+	}
+
+	/**
+	 * Utility function to start an election on a separate thread, unless one
+	 * is already running.
+	 */
+	void startElectionInBackground() {
+		if (!this.electionInProgress.compareAndSet(false, true)) {
+			return;
+		}
+		messengers.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					runElection();
+				} catch (RemoteException e) {
+					System.err.println("Election failed: " + e.getMessage());
+				} finally {
+					electionInProgress.set(false);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Runs rounds of the Bully Election algorithm. If no process with a higher
+	 * PID answers in time, the current process declares itself the victor. If
+	 * one answers but no victory message follows in time, the election is run
+	 * again, and concluded by the current process after MAX_ELECTION_ROUNDS
+	 * rounds.
+	 * 
+	 * @throws RemoteException
+	 */
+	private void runElection() throws RemoteException {
+		for (int round = 1;; round++) {
+			long aliveSeen;
+			long victorySeen;
+			synchronized (this.electionMonitor) {
+				aliveSeen = this.aliveMessages;
+				victorySeen = this.victoryMessages;
+			}
+			List<ServerDetail> participants = findAllParticipants();
+			if (!sendElectionMessages(participants)) {
+				declareVictory(participants);
+				return;
 			}
+			ElectionOutcome outcome = waitForEndOfElection(aliveSeen,
+					victorySeen);
+			if (outcome == ElectionOutcome.VICTORY) {
+				return;
+			}
+			if (outcome == ElectionOutcome.NO_ANSWER
+					|| round >= MAX_ELECTION_ROUNDS) {
+				System.err.println("Election timed out. Concluding election.");
+				declareVictory(findAllParticipants());
+				return;
+			}
+			System.err.println("No victory message received. Restarting election.");
 		}
-		if (foundParticipants) {
-			waitForEndOfElection();
+	}
+
+	/**
+	 * Utility function to send election messages to all processes with a
+	 * higher PID.
+	 * 
+	 * @param participants
+	 * @return True if an election message was delivered to any process.
+	 * @throws RemoteException
+	 */
+	private boolean sendElectionMessages(List<ServerDetail> participants)
+			throws RemoteException {
+		List<ServerDetail> higherParticipants = new ArrayList<ServerDetail>();
+		for (ServerDetail participant : participants) {
+			if (!participant.getServerName().equals(this.getServerName())
+					&& participant.getPID() > this.PID) {
+				System.out.println("Sending startElection msg to "
+						+ participant.getServerName() + ".");
+				higherParticipants.add(participant);
+			}
+		}
+		return this.sendToAll(higherParticipants, new ElectionMessage() {
+			@Override
+			public void sendTo(BullyElectable clientStub)
+					throws RemoteException {
+				clientStub.startElection(PID);
+			}
+		}) > 0;
+	}
+
+	/**
+	 * Utility function to make the current process the time server and
+	 * broadcast its victory to all other processes.
+	 * 
+	 * @param participants
+	 * @throws RemoteException
+	 */
+	private void declareVictory(List<ServerDetail> participants)
+			throws RemoteException {
+		this.notifyVictory(this.getServerName());
+		this.setupBerkeleySyncThread();
+		List<ServerDetail> otherParticipants = this
+				.getOtherParticipants(participants);
+		for (ServerDetail participant : otherParticipants) {
+			System.out.println("Sending notifyVictory msg to "
+					+ participant.getServerName() + ".");
+		}
+		this.sendToAll(otherParticipants, new ElectionMessage() {
+			@Override
+			public void sendTo(BullyElectable clientStub)
+					throws RemoteException {
+				clientStub.notifyVictory(getServerName());
+			}
+		});
+	}
+
+	/**
+	 * Utility function to send heartbeats from the time server to all other
+	 * processes. The time server's own lease is renewed if a majority of the
+	 * other processes received the heartbeat.
+	 * 
+	 * @throws RemoteException
+	 */
+	void sendHeartbeats() throws RemoteException {
+		List<ServerDetail> otherParticipants = this.getOtherParticipants(this
+				.findAllParticipants());
+		int delivered = this.sendToAll(otherParticipants,
+				new ElectionMessage() {
+					@Override
+					public void sendTo(BullyElectable clientStub)
+							throws RemoteException {
+						clientStub.notifyHeartbeat(getServerName());
+					}
+				});
+		if (2 * delivered >= otherParticipants.size()
+				&& this.getServerName().equals(this.timeServerName)) {
+			this.renewLeaderLease(this.getServerName());
 		} else {
-			this.notifyVictory(this.getServerName());
-			Thread thread = new Thread(new BerkeleySynchronizer(this));
-			thread.start();
-			for (ServerDetail participant : participants) {
-				if (!participant.getServerName().equals(this.getServerName())) {
-					BullyElectable clientStub = getBullyElectableClientStub(participant);
-					if (clientStub != null) {
-						System.out.println("Sending notifyVictory msg to "
-								+ participant.getServerName() + ".");
-						clientStub.notifyVictory(this.getServerName());
+			this.metrics.incrementCounter("election.lease.missed");
+		}
+	}
+
+	/**
+	 * Utility function run periodically by the {@link LeaderMonitor}. The time
+	 * server sends heartbeats; every process starts an election once the
+	 * lease of the time server has run out.
+	 */
+	void checkLeader() {
+		if (this.getServerName().equals(this.timeServerName)) {
+			try {
+				this.sendHeartbeats();
+			} catch (RemoteException e) {
+				System.err.println("Could not send heartbeats.");
+			}
+		}
+		if (System.currentTimeMillis() >= this.leaderLeaseExpiry
+				&& !this.electionInProgress.get()) {
+			System.err.println("Lease of time server " + this.timeServerName
+					+ " expired. Starting election.");
+			this.metrics.incrementCounter("election.lease.expired");
+			this.startElectionInBackground();
+		}
+	}
+
+	/**
+	 * Utility function to extend the lease of the specified time server. The
+	 * time server itself uses a lease shorter by LEADER_LEASE_MARGIN.
+	 * 
+	 * @param leaderServerName
+	 */
+	private void renewLeaderLease(String leaderServerName) {
+		long duration = leaderServerName.equals(this.getServerName()) ? LEADER_LEASE_DURATION
+				- LEADER_LEASE_MARGIN
+				: LEADER_LEASE_DURATION;
+		this.timeServerName = leaderServerName;
+		this.leaderLeaseExpiry = System.currentTimeMillis() + duration;
+	}
+
+	/**
+	 * Utility function to send a message to several processes concurrently.
+	 * Waits up to MESSAGE_TIMEOUT for all of them to be delivered; processes
+	 * the message could not be delivered to are invalidated.
+	 * 
+	 * @param recipients
+	 * @param message
+	 * @return The number of processes the message was delivered to in time.
+	 */
+	private int sendToAll(List<ServerDetail> recipients,
+			final ElectionMessage message) {
+		List<Future<Boolean>> deliveries = new ArrayList<Future<Boolean>>();
+		for (final ServerDetail recipient : recipients) {
+			deliveries.add(messengers.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws RemoteException {
+					BullyElectable clientStub = getBullyElectableClientStub(recipient);
+					if (clientStub == null) {
+						return false;
 					}
+					message.sendTo(clientStub);
+					return true;
 				}
+			}));
+		}
+
+		int delivered = 0;
+		long deadline = System.currentTimeMillis() + MESSAGE_TIMEOUT;
+		for (int i = 0; i < deliveries.size(); i++) {
+			Future<Boolean> delivery = deliveries.get(i);
+			try {
+				if (delivery.get(
+						Math.max(0, deadline - System.currentTimeMillis()),
+						TimeUnit.MILLISECONDS)) {
+					delivered++;
+				}
+			} catch (TimeoutException e) {
+				delivery.cancel(true);
+				this.onDeliveryFailure(recipients.get(i));
+			} catch (ExecutionException e) {
+				this.onDeliveryFailure(recipients.get(i));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		return delivered;
+	}
+
+	private void onDeliveryFailure(ServerDetail recipient) {
+		this.invalidateServer(recipient);
+		this.metrics.incrementCounter("election.message.failed");
+		System.err.println("Could not deliver election message to "
+				+ recipient.getServerName() + ".");
+	}
+
+	private List<ServerDetail> getOtherParticipants(
+			List<ServerDetail> participants) {
+		List<ServerDetail> otherParticipants = new ArrayList<ServerDetail>();
+		for (ServerDetail participant : participants) {
+			if (!participant.getServerName().equals(this.getServerName())) {
+				otherParticipants.add(participant);
 			}
 		}
+		return otherParticipants;
 	}
 
 	/**
-	 * Utility function to wait for end of election.
+	 * Utility function to wait for end of election. Waits up to
+	 * ELECTION_TIMEOUT for an 'Alive' message from a process with a higher PID,
+	 * and then up to VICTORY_TIMEOUT for a victory message.
+	 * 
+	 * @param aliveSeen
+	 *            Count of 'Alive' messages when the election started.
+	 * @param victorySeen
+	 *            Count of victory messages when the election started.
+	 * @return The outcome of the election.
+	 * @throws RemoteException
+	 *             If interrupted while waiting.
 	 */
-	private void waitForEndOfElection() {
-		while (!this.electionEnded)
-			;
-		this.electionEnded = false;
+	private ElectionOutcome waitForEndOfElection(long aliveSeen,
+			long victorySeen) throws RemoteException {
+		synchronized (this.electionMonitor) {
+			try {
+				long deadline = System.currentTimeMillis() + ELECTION_TIMEOUT;
+				while (this.aliveMessages == aliveSeen
+						&& this.victoryMessages == victorySeen) {
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0) {
+						return ElectionOutcome.NO_ANSWER;
+					}
+					this.electionMonitor.wait(remaining);
+				}
+				deadline = System.currentTimeMillis() + VICTORY_TIMEOUT;
+				while (this.victoryMessages == victorySeen) {
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0) {
+						return ElectionOutcome.NO_VICTORY;
+					}
+					this.electionMonitor.wait(remaining);
+				}
+				return ElectionOutcome.VICTORY;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RemoteException(
+						"Interrupted while waiting for end of election.", e);
+			}
+		}
 	}
 
 	/**
-	 * Utility function to send 'Alive' message, that causes current process to
-	 * stop waiting.
+	 * Utility function to send 'Alive' message, that tells the current process
+	 * a process with a higher PID has taken over the election.
 	 */
 	@Override
 	public void notifyAlive() throws RemoteException {
-		this.electionEnded = true;
+		synchronized (this.electionMonitor) {
+			this.aliveMessages++;
+			this.electionMonitor.notifyAll();
+		}
 	}
 
 	/**
@@ -202,21 +537,49 @@ public abstract class BullyElectedBerkeleySynchronized extends ServiceComponent
 
 	/**
 	 * Utility function to send clock offsets from time server to other
-	 * processes.
+	 * processes. The offset is a correction relative to the current local
+	 * time, so it is added to the corrections received so far. The hybrid
+	 * logical clock follows the corrected time.
 	 */
 	@Override
 	public void setClockOffset(long clockOffset) throws RemoteException {
-		this.clockOffset = clockOffset;
+		this.clockOffset += clockOffset;
+		this.hybridClock.setPhysicalOffset(this.clockOffset);
 	}
 
 	/**
 	 * Utility function to check if current process is the time server.
 	 * 
-	 * @return If current process is the elected time server, true otherwise
-	 *         false.
+	 * @return If current process is the elected time server and holds the
+	 *         leader lease, true otherwise false.
 	 */
 	public boolean isElectedTimeServer() {
-		return this.timeServerName.equals(this.getServerName());
+		return this.getServerName().equals(this.timeServerName)
+				&& System.currentTimeMillis() < this.leaderLeaseExpiry;
+	}
+
+	/**
+	 * Setup the leader monitor thread.
+	 */
+	private void setupLeaderMonitorThread() {
+		if (!this.leaderMonitorStarted.compareAndSet(false, true)) {
+			return;
+		}
+		TaskExecutors.startBackgroundTask("LeaderMonitorThread",
+				new LeaderMonitor(this));
+	}
+
+	/**
+	 * Setup the Berkeley synchronization thread. It is started the first time
+	 * the current process is elected and stays idle while it is not the time
+	 * server.
+	 */
+	private void setupBerkeleySyncThread() {
+		if (!this.synchronizerStarted.compareAndSet(false, true)) {
+			return;
+		}
+		TaskExecutors.startBackgroundTask("BerkeleySyncThread",
+				new BerkeleySynchronizer(this));
 	}
 }
 
@@ -230,6 +593,13 @@ class BerkeleySynchronizer implements Runnable {
 
 	private BullyElectedBerkeleySynchronized timeServer;
 	private static int CLOCK_SYNC_INTERVAL = 30000;
+	private static long POLL_TIMEOUT = 2000;
+	private static long MAX_SAMPLE_RTT = 1000;
+	private static long MAX_CLOCK_SKEW = 1000;
+	private static ExecutorService pollers = TaskExecutors
+			.newTaskExecutor("ClockPoll");
+
+	private ConcurrentMap<String, AtomicLong> lastOffsets = new ConcurrentHashMap<String, AtomicLong>();
 
 	public BerkeleySynchronizer(BullyElectedBerkeleySynchronized timeServer) {
 		this.timeServer = timeServer;
@@ -240,47 +610,20 @@ class BerkeleySynchronizer implements Runnable {
 	}
 
 	/**
-	 * Periodically polls other processes for their local time, averages
-	 * (accounting for transmission delay as one half of Round Trip Time) and
-	 * sends out clock offset messages to correct local time of other processes.
+	 * Periodically polls other processes for their local time and sends out
+	 * clock offset messages to correct local time of other processes. All
+	 * processes are polled concurrently, so a round takes as long as the
+	 * slowest reply rather than the sum of all replies.
 	 */
 	@Override
 	public void run() {
 		while (true) {
 			if (this.timeServer.isElectedTimeServer()) {
 				try {
-					List<ServerDetail> participants = this.timeServer
-							.findAllParticipants();
-					List<Long> participantTimes = new ArrayList<Long>();
-					double average = 0.0;
-					for (ServerDetail participant : participants) {
-						long startTime = System.currentTimeMillis();
-						BerkeleySynchronizable clientStub = timeServer
-								.getBerkeleySynchronizableClientStub(participant);
-						if (clientStub != null) {
-							System.out.println("Sending getTime msg to "
-									+ participant.getServerName() + ".");
-							long participantTime = clientStub.getTime();
-							participantTimes.add(participantTime);
-							average += participantTime;
-						}
-						long RTT = (System.currentTimeMillis() - startTime);
-						average += RTT / 2;
-					}
-					average /= participants.size();
-					int participantIndex = 0;
-					for (ServerDetail participant : participants) {
-						BerkeleySynchronizable clientStub = timeServer
-								.getBerkeleySynchronizableClientStub(participant);
-						if (clientStub != null) {
-							long clockOffset = (long) average
-									- participantTimes.get(participantIndex++);
-							System.out.println("Sending setClockOffset msg to "
-									+ participant.getServerName()
-									+ ". Clock offset: " + clockOffset);
-							clientStub.setClockOffset(clockOffset);
-						}
-					}
+					long startTime = System.nanoTime();
+					this.synchronizeClocks(this.timeServer.findAllParticipants());
+					this.timeServer.metrics.recordLatency("clock.sync",
+							startTime);
 				} catch (RemoteException e) {
 					e.printStackTrace();
 				}
@@ -293,4 +636,213 @@ class BerkeleySynchronizer implements Runnable {
 			}
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Runs one round of the Berkeley algorithm. The clock difference of each
+	 * process to the time server is estimated from its reply, accounting for
+	 * transmission delay as one half of Round Trip Time. Replies whose RTT
+	 * exceeds MAX_SAMPLE_RTT are too uncertain to use and are dropped. The
+	 * correction is the average of the differences within MAX_CLOCK_SKEW of
+	 * their median, so that a single faulty clock does not drag the others
+	 * along; every process that replied in time is then corrected towards it.
+	 * 
+	 * @param participants
+	 */
+	private void synchronizeClocks(List<ServerDetail> participants) {
+		List<ClockSample> samples = this.pollParticipants(participants);
+		if (samples.isEmpty()) {
+			return;
+		}
+
+		List<Long> differences = new ArrayList<Long>();
+		for (ClockSample sample : samples) {
+			differences.add(sample.difference);
+		}
+		Collections.sort(differences);
+		long median = differences.get(differences.size() / 2);
+		double average = 0.0;
+		int acceptedSamples = 0;
+		for (long difference : differences) {
+			if (Math.abs(difference - median) <= MAX_CLOCK_SKEW) {
+				average += difference;
+				acceptedSamples++;
+			} else {
+				this.timeServer.metrics.incrementCounter("clock.rejected.skew");
+			}
+		}
+		average /= acceptedSamples;
+
+		for (ClockSample sample : samples) {
+			ServerDetail participant = sample.participant;
+			long clockOffset = (long) average - sample.difference;
+			this.recordOffset(participant.getServerName(), clockOffset);
+			try {
+				BerkeleySynchronizable clientStub = timeServer
+						.getBerkeleySynchronizableClientStub(participant);
+				if (clientStub != null) {
+					System.out.println("Sending setClockOffset msg to "
+							+ participant.getServerName() + ". Clock offset: "
+							+ clockOffset);
+					clientStub.setClockOffset(clockOffset);
+				}
+			} catch (RemoteException e) {
+				timeServer.getPeerBreaker(participant).recordFailure();
+				timeServer.invalidateServer(participant);
+				System.err.println("Could not set clock offset of "
+						+ participant.getServerName() + ".");
+			}
+		}
+	}
+
+	/**
+	 * Polls all participants for their local time concurrently and waits up
+	 * to POLL_TIMEOUT for their replies.
+	 * 
+	 * @param participants
+	 * @return Samples of the participants that replied in time with an
+	 *         acceptable RTT.
+	 */
+	private List<ClockSample> pollParticipants(List<ServerDetail> participants) {
+		List<Future<ClockSample>> polls = new ArrayList<Future<ClockSample>>();
+		for (final ServerDetail participant : participants) {
+			final CircuitBreaker breaker = timeServer.getPeerBreaker(participant);
+			if (!breaker.allowRequest()) {
+				continue;
+			}
+			polls.add(pollers.submit(new Callable<ClockSample>() {
+				@Override
+				public ClockSample call() {
+					return pollParticipant(participant, breaker);
+				}
+			}));
+		}
+
+		List<ClockSample> samples = new ArrayList<ClockSample>();
+		long deadline = System.currentTimeMillis() + POLL_TIMEOUT;
+		for (Future<ClockSample> poll : polls) {
+			try {
+				ClockSample sample = poll.get(
+						Math.max(0, deadline - System.currentTimeMillis()),
+						TimeUnit.MILLISECONDS);
+				if (sample != null) {
+					samples.add(sample);
+				}
+			} catch (TimeoutException e) {
+				poll.cancel(true);
+				this.timeServer.metrics.incrementCounter("clock.timeout");
+			} catch (ExecutionException e) {
+				this.timeServer.metrics.incrementCounter("clock.unreachable");
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return samples;
+			}
+		}
+		return samples;
+	}
+
+	/**
+	 * Polls a single participant for its local time.
+	 * 
+	 * @param participant
+	 * @param breaker
+	 * @return The sample, or null if the participant could not be reached or
+	 *         replied too slowly.
+	 */
+	private ClockSample pollParticipant(ServerDetail participant,
+			CircuitBreaker breaker) {
+		try {
+			BerkeleySynchronizable clientStub = timeServer
+					.getBerkeleySynchronizableClientStub(participant);
+			if (clientStub == null) {
+				return null;
+			}
+			System.out.println("Sending getTime msg to "
+					+ participant.getServerName() + ".");
+			long startTime = System.nanoTime();
+			long participantTime = clientStub.getTime();
+			long RTT = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+					- startTime);
+			long localTime = this.timeServer.getTime();
+			breaker.recordSuccess();
+			this.timeServer.metrics.recordLatency(
+					"clock.rtt." + participant.getServerName(), startTime);
+			if (RTT > MAX_SAMPLE_RTT) {
+				this.timeServer.metrics.incrementCounter("clock.rejected.rtt");
+				return null;
+			}
+			return new ClockSample(participant, participantTime + RTT / 2
+					- localTime);
+		} catch (RemoteException e) {
+			breaker.recordFailure();
+			timeServer.invalidateServer(participant);
+			this.timeServer.metrics.incrementCounter("clock.unreachable");
+			System.err.println("Could not get time from "
+					+ participant.getServerName() + ".");
+			return null;
+		}
+	}
+
+	/**
+	 * Records the last correction sent to a participant, registering a gauge
+	 * for it the first time the participant is corrected.
+	 */
+	private void recordOffset(String serverName, long clockOffset) {
+		AtomicLong lastOffset = this.lastOffsets.get(serverName);
+		if (lastOffset == null) {
+			final AtomicLong newOffset = new AtomicLong();
+			lastOffset = this.lastOffsets.putIfAbsent(serverName, newOffset);
+			if (lastOffset == null) {
+				lastOffset = newOffset;
+				this.timeServer.metrics.registerGauge("clock.offset."
+						+ serverName, new MetricsRegistry.Gauge() {
+					@Override
+					public long getValue() {
+						return newOffset.get();
+					}
+				});
+			}
+		}
+		lastOffset.set(clockOffset);
+	}
+
+	/**
+	 * Estimated difference between the clock of a participant and the clock
+	 * of the time server, in milliseconds.
+	 */
+	private static class ClockSample {
+		private ServerDetail participant;
+		private long difference;
+
+		public ClockSample(ServerDetail participant, long difference) {
+			this.participant = participant;
+			this.difference = difference;
+		}
+	}
+}
+
+/**
+ * Sends heartbeats while the current process is the time server, and starts
+ * an election when the lease of the time server runs out.
+ * 
+ * @author aravind
+ * 
+ */
+class LeaderMonitor implements Runnable {
+	private BullyElectedBerkeleySynchronized participant;
+
+	public LeaderMonitor(BullyElectedBerkeleySynchronized participant) {
+		this.participant = participant;
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			try {
+				Thread.sleep(BullyElectedBerkeleySynchronized.HEARTBEAT_INTERVAL);
+			} catch (InterruptedException e) {
+				return;
+			}
+			this.participant.checkLeader();
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package util;
+
+/**
+ * A circuit breaker guarding calls to a single remote destination. After a
+ * number of consecutive failures the circuit opens and calls are refused for a
+ * backoff period, which doubles with every further failure up to a maximum.
+ * Once the backoff period has elapsed, a single trial call is let through: if
+ * it succeeds the circuit closes again, otherwise it re-opens. A trial call
+ * whose outcome is never recorded, for instance because it ended with an
+ * unexpected exception, expires after another backoff period, so that the
+ * circuit cannot stay open for good.
+ * 
+ * @author aravind
+ * 
+ */
+public class CircuitBreaker {
+
+	private int failureThreshold;
+	private long initialBackoff;
+	private long maxBackoff;
+
+	private int consecutiveFailures;
+	private long backoff;
+	private long openUntil;
+	private boolean trialInFlight;
+	private long trialExpiry;
+
+	public CircuitBreaker(int failureThreshold, long initialBackoff,
+			long maxBackoff) {
+		this.failureThreshold = failureThreshold;
+		this.initialBackoff = initialBackoff;
+		this.maxBackoff = maxBackoff;
+		this.consecutiveFailures = 0;
+		this.backoff = initialBackoff;
+		this.openUntil = 0;
+		this.trialInFlight = false;
+		this.trialExpiry = 0;
+	}
+
+	/**
+	 * Checks whether a call may be made to the destination.
+	 * 
+	 * @return True if the circuit is closed, or if this call is the trial call
+	 *         of an open circuit whose backoff period has elapsed.
+	 */
+	public synchronized boolean allowRequest() {
+		if (this.consecutiveFailures < this.failureThreshold) {
+			return true;
+		}
+		long now = System.currentTimeMillis();
+		if ((!this.trialInFlight || now >= this.trialExpiry)
+				&& now >= this.openUntil) {
+			this.trialInFlight = true;
+			this.trialExpiry = now + this.backoff;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Records a successful call, closing the circuit.
+	 */
+	public synchronized void recordSuccess() {
+		this.consecutiveFailures = 0;
+		this.backoff = this.initialBackoff;
+		this.trialInFlight = false;
+	}
+
+	/**
+	 * Records a failed call, opening the circuit once the failure threshold is
+	 * reached.
+	 */
+	public synchronized void recordFailure() {
+		this.consecutiveFailures++;
+		this.trialInFlight = false;
+		if (this.consecutiveFailures >= this.failureThreshold) {
+			this.openUntil = System.currentTimeMillis() + this.backoff;
+			this.backoff = Math.min(this.backoff * 2, this.maxBackoff);
+		}
+	}
+
+	/**
+	 * @return The number of consecutive failed calls.
+	 */
+	public synchronized int getConsecutiveFailures() {
+		return this.consecutiveFailures;
+	}
+
+	/**
+	 * @return True if calls are currently being refused.
+	 */
+	public synchronized boolean isOpen() {
+		return this.consecutiveFailures >= this.failureThreshold;
+	}
+}
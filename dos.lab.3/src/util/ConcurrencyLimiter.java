@@ -0,0 +1,119 @@
+package util;
+
+/**
+ * An adaptive, latency based concurrency limiter. The limit on the number of
+ * concurrent requests is adjusted using AIMD (additive increase, multiplicative
+ * decrease): every request completing within the latency target raises the
+ * limit by roughly one per window of requests, while a slow request cuts the
+ * limit by a constant factor.
+ * 
+ * Normal requests are admitted only while below the limit. Priority requests
+ * are always admitted, but still count against the limit, so that they take
+ * capacity away from normal requests rather than queue behind them. Only the
+ * latency of normal requests adjusts the limit, so that slow priority work
+ * does not shrink the capacity left for normal requests.
+ * 
+ * @author aravind
+ * 
+ */
+public class ConcurrencyLimiter {
+
+	private static double BACKOFF_RATIO = 0.9;
+	private static double LATENCY_SMOOTHING = 0.2;
+
+	private int minLimit;
+	private int maxLimit;
+	private long latencyTarget;
+	private double limit;
+	private int inFlight;
+	private long rejectedCount;
+	private double averageLatency;
+
+	public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit,
+			long latencyTarget) {
+		this.minLimit = Math.max(1, minLimit);
+		this.maxLimit = Math.max(this.minLimit, maxLimit);
+		this.limit = Math.min(this.maxLimit,
+				Math.max(this.minLimit, initialLimit));
+		this.latencyTarget = latencyTarget;
+		this.inFlight = 0;
+		this.rejectedCount = 0;
+		this.averageLatency = 0.0;
+	}
+
+	/**
+	 * Admits a normal request if the number of requests in flight is below the
+	 * current limit.
+	 * 
+	 * @return True if the request was admitted, false if it must be rejected.
+	 */
+	public synchronized boolean tryAcquire() {
+		if (this.inFlight >= (int) this.limit) {
+			this.rejectedCount++;
+			return false;
+		}
+		this.inFlight++;
+		return true;
+	}
+
+	/**
+	 * Admits a priority request regardless of the current limit.
+	 */
+	public synchronized void acquirePriority() {
+		this.inFlight++;
+	}
+
+	/**
+	 * Releases an admitted request and adjusts the limit according to its
+	 * latency.
+	 * 
+	 * @param latency
+	 *            Time taken to process the request, in milliseconds.
+	 */
+	public synchronized void release(long latency) {
+		this.inFlight--;
+		this.averageLatency += LATENCY_SMOOTHING
+				* (latency - this.averageLatency);
+		if (latency > this.latencyTarget) {
+			this.limit = Math.max(this.minLimit, this.limit * BACKOFF_RATIO);
+		} else {
+			this.limit = Math.min(this.maxLimit, this.limit + 1.0 / this.limit);
+		}
+	}
+
+	/**
+	 * Releases an admitted priority request, without adjusting the limit.
+	 */
+	public synchronized void releasePriority() {
+		this.inFlight--;
+	}
+
+	/**
+	 * @return The number of requests currently in flight.
+	 */
+	public synchronized int getInFlight() {
+		return this.inFlight;
+	}
+
+	/**
+	 * @return The current concurrency limit.
+	 */
+	public synchronized int getLimit() {
+		return (int) this.limit;
+	}
+
+	/**
+	 * @return The exponentially weighted moving average of request latency,
+	 *         in milliseconds.
+	 */
+	public synchronized double getAverageLatency() {
+		return this.averageLatency;
+	}
+
+	/**
+	 * @return The number of requests rejected so far.
+	 */
+	public synchronized long getRejectedCount() {
+		return this.rejectedCount;
+	}
+}
@@ -0,0 +1,43 @@
+package util;
+
+import java.rmi.NotBoundException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import base.OlympicException;
+
+/**
+ * In-process transport for running every service in a single JVM. Server
+ * objects are kept in a JVM-wide map and lookups return the server object
+ * itself, so calls are plain method calls with no serialization or network
+ * overhead. Hosts and ports are ignored, as server names are unique.
+ * 
+ * Arguments and results are shared rather than copied, which differs from
+ * RMI; this transport is intended for benchmarking and testing.
+ * 
+ * @author aravind
+ * 
+ */
+public class DirectTransport implements Transport {
+
+	private static ConcurrentMap<String, Remote> servers = new ConcurrentHashMap<String, Remote>();
+
+	@Override
+	public void bind(String serverName, Remote server, int port)
+			throws RemoteException, OlympicException {
+		servers.put(serverName, server);
+	}
+
+	@Override
+	public <T extends Remote> T lookup(String host, int port,
+			String serverName, Class<T> type) throws RemoteException,
+			NotBoundException {
+		Remote server = servers.get(serverName);
+		if (server == null) {
+			throw new NotBoundException(serverName);
+		}
+		return type.cast(server);
+	}
+}
@@ -0,0 +1,181 @@
+package util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Encapsulates a hybrid logical clock. Timestamps combine the physical time in
+ * milliseconds, in the upper 48 bits, with a logical counter, in the lower 16
+ * bits, into a single long. Timestamps issued by one clock always increase,
+ * a timestamp received from another process is always exceeded by the next
+ * local one, and timestamps stay close to wall clock time, so they can be
+ * compared across processes without exchanging clocks on every event.
+ * 
+ * The physical time is the local time corrected by the offset set by the
+ * Berkeley time server, see {@link #setPhysicalOffset(long)}. A correction
+ * that moves the physical time backwards is absorbed by the logical counter.
+ * The logical counter never overflows into the physical time; once it is
+ * exhausted, the clock waits for the physical time to reach the next
+ * millisecond.
+ * 
+ * @author aravind
+ * 
+ */
+public class HybridLogicalClock {
+
+	private static int LOGICAL_BITS = 16;
+	private static long LOGICAL_MASK = (1L << LOGICAL_BITS) - 1;
+	private static long MAX_DRIFT = 60000;
+
+	private AtomicLong lastTimestamp;
+	private volatile long physicalOffset;
+
+	public HybridLogicalClock() {
+		this.lastTimestamp = new AtomicLong(0);
+		this.physicalOffset = 0;
+	}
+
+	/**
+	 * Issues a timestamp for a local event, or for sending a message.
+	 * 
+	 * @return A timestamp greater than any issued or received before.
+	 */
+	public long now() {
+		while (true) {
+			long last = this.lastTimestamp.get();
+			long next = this.nextTimestamp(last);
+			if (next == last) {
+				this.awaitPhysicalTime(getPhysicalTime(last));
+			} else if (this.lastTimestamp.compareAndSet(last, next)) {
+				return next;
+			}
+		}
+	}
+
+	/**
+	 * Merges a timestamp received from another process and issues a timestamp
+	 * for the receipt. A timestamp whose physical time is more than MAX_DRIFT
+	 * ahead of the local physical time is not merged, so that a process with
+	 * a faulty clock cannot drag every other clock into the future.
+	 * 
+	 * @param remoteTimestamp
+	 * @return A timestamp greater than the received one and any issued or
+	 *         received before, or just the latter if the received timestamp
+	 *         was rejected.
+	 */
+	public long update(long remoteTimestamp) {
+		if (getPhysicalTime(remoteTimestamp) > this.getPhysicalTime() + MAX_DRIFT) {
+			System.err.println("Rejected timestamp " + format(remoteTimestamp)
+					+ " too far ahead of local time.");
+			return this.now();
+		}
+		while (true) {
+			long last = this.lastTimestamp.get();
+			long latest = Math.max(last, remoteTimestamp);
+			long next = this.nextTimestamp(latest);
+			if (next == latest) {
+				this.awaitPhysicalTime(getPhysicalTime(latest));
+			} else if (this.lastTimestamp.compareAndSet(last, next)) {
+				return next;
+			}
+		}
+	}
+
+	/**
+	 * Utility function to compute the timestamp following the specified one.
+	 * 
+	 * @param timestamp
+	 * @return The current physical time if it is ahead of the timestamp, else
+	 *         the timestamp with its logical counter incremented, or the
+	 *         timestamp itself if its logical counter is exhausted.
+	 */
+	private long nextTimestamp(long timestamp) {
+		long physical = pack(this.getPhysicalTime(), 0);
+		if (physical > timestamp) {
+			return physical;
+		}
+		if (getLogicalTime(timestamp) < LOGICAL_MASK) {
+			return timestamp + 1;
+		}
+		return timestamp;
+	}
+
+	/**
+	 * Utility function to wait until the physical time is past the specified
+	 * millisecond. The thread sleeps rather than spins, as a received
+	 * timestamp may have put the clock up to MAX_DRIFT ahead of the physical
+	 * time; waits longer than a millisecond are logged.
+	 * 
+	 * @param physicalTime
+	 */
+	private void awaitPhysicalTime(long physicalTime) {
+		long waitTime = physicalTime - this.getPhysicalTime() + 1;
+		if (waitTime > 1) {
+			System.err.println("Logical clock exhausted. Waiting " + waitTime
+					+ " ms for the physical clock.");
+		}
+		boolean interrupted = false;
+		while (waitTime > 0) {
+			try {
+				Thread.sleep(Math.min(waitTime, MAX_DRIFT));
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+			waitTime = physicalTime - this.getPhysicalTime() + 1;
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return The last timestamp issued or received.
+	 */
+	public long getLastTimestamp() {
+		return this.lastTimestamp.get();
+	}
+
+	/**
+	 * Sets the correction applied to the local time.
+	 * 
+	 * @param physicalOffset
+	 *            Offset in milliseconds.
+	 */
+	public void setPhysicalOffset(long physicalOffset) {
+		this.physicalOffset = physicalOffset;
+	}
+
+	private long getPhysicalTime() {
+		return System.currentTimeMillis() + this.physicalOffset;
+	}
+
+	/**
+	 * @param timestamp
+	 * @return The physical time of the timestamp, in milliseconds.
+	 */
+	public static long getPhysicalTime(long timestamp) {
+		return timestamp >>> LOGICAL_BITS;
+	}
+
+	/**
+	 * @param timestamp
+	 * @return The logical counter of the timestamp.
+	 */
+	public static int getLogicalTime(long timestamp) {
+		return (int) (timestamp & LOGICAL_MASK);
+	}
+
+	/**
+	 * Formats a timestamp as a fixed width string, so that formatted
+	 * timestamps sort in the same order as the timestamps.
+	 * 
+	 * @param timestamp
+	 * @return String
+	 */
+	public static String format(long timestamp) {
+		return String.format("%016x", timestamp);
+	}
+
+	private static long pack(long physicalTime, int logicalTime) {
+		return (physicalTime << LOGICAL_BITS) | logicalTime;
+	}
+}
@@ -1,42 +1,92 @@
 package util;
 
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Encapsulates a lamport clock.
+ * Encapsulates a lamport clock. The clock is safe to tick and synchronize
+ * from any number of threads without locking.
  * 
  * @author aravind
  * 
  */
 public class LamportClock implements Serializable {
 
-	private static final long serialVersionUID = 8316408937788296192L;
-	private Long time;
+	private static final long serialVersionUID = -6013954425181747130L;
+	private AtomicLong time;
 
 	public LamportClock() {
-		this.time = 0L;
+		this(0L);
+	}
+
+	/**
+	 * @param time
+	 *            Initial time of the clock.
+	 */
+	public LamportClock(long time) {
+		this.time = new AtomicLong(time);
 	}
 
 	/**
 	 * Synchronizes the local timestamp with the incoming timestamp.
 	 * 
 	 * @param incomingTimeStamp
+	 * @return The local time after synchronizing.
 	 */
-	public void synchronizeTime(LamportClock incomingTimeStamp) {
-		this.time = Math.max(this.getTime(), incomingTimeStamp.getTime());
+	public long synchronizeTime(LamportClock incomingTimeStamp) {
+		return this.synchronizeTime(incomingTimeStamp.getTime());
+	}
+
+	/**
+	 * Synchronizes the local timestamp with the incoming time, advancing the
+	 * local time to the incoming time if it is behind.
+	 * 
+	 * @param incomingTime
+	 * @return The local time after synchronizing.
+	 */
+	public long synchronizeTime(long incomingTime) {
+		while (true) {
+			long currentTime = this.time.get();
+			if (currentTime >= incomingTime) {
+				return currentTime;
+			}
+			if (this.time.compareAndSet(currentTime, incomingTime)) {
+				return incomingTime;
+			}
+		}
+	}
+
+	/**
+	 * Synchronizes the local timestamp with the incoming time and increments
+	 * it by 1 in a single step, so that every call returns a distinct time
+	 * even when called concurrently.
+	 * 
+	 * @param incomingTime
+	 * @return The local time after synchronizing and incrementing.
+	 */
+	public long synchronizeAndTick(long incomingTime) {
+		while (true) {
+			long currentTime = this.time.get();
+			long nextTime = Math.max(currentTime, incomingTime) + 1;
+			if (this.time.compareAndSet(currentTime, nextTime)) {
+				return nextTime;
+			}
+		}
 	}
 
 	/**
 	 * @return The local time
 	 */
-	public Long getTime() {
-		return this.time;
+	public long getTime() {
+		return this.time.get();
 	}
 
 	/**
 	 * Increments the local time by 1.
+	 * 
+	 * @return The local time after incrementing.
 	 */
-	public void tick() {
-		this.time++;
+	public long tick() {
+		return this.time.incrementAndGet();
 	}
 }
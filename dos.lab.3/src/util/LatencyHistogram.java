@@ -0,0 +1,125 @@
+package util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free, fixed size latency histogram. Values below 16 are counted
+ * exactly, larger values fall into logarithmic buckets each split into 8
+ * linear sub buckets, bounding the relative error of reported percentiles to
+ * 12.5%. Recording is a handful of atomic increments, so it is cheap enough to
+ * be used on every request.
+ * 
+ * @author aravind
+ * 
+ */
+public class LatencyHistogram {
+
+	private static int LINEAR_BUCKETS = 16;
+	private static int SUB_BUCKET_BITS = 3;
+	private static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static int MIN_EXPONENT = 4;
+	private static int MAX_EXPONENT = 62;
+	private static int NUMBER_OF_BUCKETS = LINEAR_BUCKETS
+			+ (MAX_EXPONENT - MIN_EXPONENT + 1) * SUB_BUCKETS;
+
+	private AtomicLongArray buckets;
+	private AtomicLong count;
+	private AtomicLong sum;
+	private AtomicLong max;
+
+	public LatencyHistogram() {
+		this.buckets = new AtomicLongArray(NUMBER_OF_BUCKETS);
+		this.count = new AtomicLong();
+		this.sum = new AtomicLong();
+		this.max = new AtomicLong();
+	}
+
+	/**
+	 * Records a single value.
+	 * 
+	 * @param value
+	 *            Latency, in microseconds. Negative values are recorded as 0.
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		this.buckets.incrementAndGet(bucketIndex(value));
+		this.count.incrementAndGet();
+		this.sum.addAndGet(value);
+		long currentMax = this.max.get();
+		while (value > currentMax && !this.max.compareAndSet(currentMax, value)) {
+			currentMax = this.max.get();
+		}
+	}
+
+	/**
+	 * Takes a snapshot of the values recorded so far.
+	 * 
+	 * @return LatencySnapshot
+	 */
+	public LatencySnapshot getSnapshot() {
+		long[] counts = new long[NUMBER_OF_BUCKETS];
+		long total = 0;
+		for (int i = 0; i < NUMBER_OF_BUCKETS; i++) {
+			counts[i] = this.buckets.get(i);
+			total += counts[i];
+		}
+		long maxValue = this.max.get();
+		double mean = (total == 0) ? 0.0 : this.sum.get() / (double) total;
+		return new LatencySnapshot(total, mean, percentile(counts, total,
+				0.5, maxValue), percentile(counts, total, 0.9, maxValue),
+				percentile(counts, total, 0.99, maxValue), percentile(counts,
+						total, 0.999, maxValue), maxValue);
+	}
+
+	/**
+	 * Utility function to compute a percentile from a set of bucket counts.
+	 * 
+	 * @return The upper bound of the bucket holding the percentile, capped at
+	 *         the maximum recorded value.
+	 */
+	private static long percentile(long[] counts, long total,
+			double percentile, long maxValue) {
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(percentile * total);
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(bucketUpperBound(i), maxValue);
+			}
+		}
+		return maxValue;
+	}
+
+	/**
+	 * Utility function to map a value to its bucket.
+	 */
+	private static int bucketIndex(long value) {
+		if (value < LINEAR_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS))
+				& (SUB_BUCKETS - 1);
+		return LINEAR_BUCKETS + (exponent - MIN_EXPONENT) * SUB_BUCKETS
+				+ subBucket;
+	}
+
+	/**
+	 * Utility function to find the largest value mapping to a bucket.
+	 */
+	private static long bucketUpperBound(int index) {
+		if (index < LINEAR_BUCKETS) {
+			return index;
+		}
+		int exponent = (index - LINEAR_BUCKETS) / SUB_BUCKETS + MIN_EXPONENT;
+		long subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS;
+		int shift = exponent - SUB_BUCKET_BITS;
+		return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+	}
+}
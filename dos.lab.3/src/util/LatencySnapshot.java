@@ -0,0 +1,67 @@
+package util;
+
+import java.io.Serializable;
+
+/**
+ * A point in time summary of a {@link LatencyHistogram}. All values are in
+ * microseconds.
+ * 
+ * @author aravind
+ * 
+ */
+public class LatencySnapshot implements Serializable {
+	private static final long serialVersionUID = -2208457143617542386L;
+	private long count;
+	private double mean;
+	private long p50;
+	private long p90;
+	private long p99;
+	private long p999;
+	private long max;
+
+	public LatencySnapshot(long count, double mean, long p50, long p90,
+			long p99, long p999, long max) {
+		this.count = count;
+		this.mean = mean;
+		this.p50 = p50;
+		this.p90 = p90;
+		this.p99 = p99;
+		this.p999 = p999;
+		this.max = max;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getMean() {
+		return mean;
+	}
+
+	public long getP50() {
+		return p50;
+	}
+
+	public long getP90() {
+		return p90;
+	}
+
+	public long getP99() {
+		return p99;
+	}
+
+	public long getP999() {
+		return p999;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"count=%d mean=%.1fus p50=%dus p90=%dus p99=%dus p999=%dus max=%dus",
+				count, mean, p50, p90, p99, p999, max);
+	}
+}
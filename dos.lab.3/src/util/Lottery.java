@@ -2,7 +2,9 @@ package util;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Random;
+import java.util.Set;
 
 /**
  * Encapsulates the lottery draw functionality.
@@ -14,12 +16,14 @@ public class Lottery implements Serializable {
 
 	private static final long serialVersionUID = 5505253127956256012L;
 	private ArrayList<String> participants;
+	private Set<String> entryIDs;
 	public int lotteryEnterFrequency = 100;
 	private Boolean drawCompleted = false;
 	private String winner;
 
 	public Lottery() {
 		this.participants = new ArrayList<String>();
+		this.entryIDs = new HashSet<String>();
 	}
 
 	/**
@@ -31,6 +35,23 @@ public class Lottery implements Serializable {
 		this.participants.add(participantID);
 	}
 
+	/**
+	 * Adds a new participant under a unique entry identifier. Entries that
+	 * have already been recorded are ignored, so that replicated entries may
+	 * be delivered more than once.
+	 * 
+	 * @param entryID
+	 * @param participantID
+	 * @return True if the entry was added, false if it was a duplicate.
+	 */
+	public boolean addParticipant(String entryID, String participantID) {
+		if (!this.entryIDs.add(entryID)) {
+			return false;
+		}
+		this.participants.add(participantID);
+		return true;
+	}
+
 	/**
 	 * Conducts the lucky draw and reports a random winner.
 	 * 
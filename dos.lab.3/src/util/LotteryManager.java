@@ -2,13 +2,14 @@ package util;
 
 import java.rmi.RemoteException;
 import java.util.List;
+import java.util.Map;
 
 public interface LotteryManager extends BullyElectable {
-	public LamportClock notifyTimeStamp(LamportClock incomingTimeStamp)
-			throws RemoteException;
-
 	public void addParticipant(String participantID) throws RemoteException;
 
+	public void addParticipants(Map<String, String> entries)
+			throws RemoteException;
+
 	public void setLotteryEnterFrequency(int lotteryEnterFrequency)
 			throws RemoteException;
 
@@ -0,0 +1,113 @@
+package util;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Encapsulates a change to the servers offering a service, as pushed by
+ * {@link ServiceFinder} to the watchers of the service. The membership of each
+ * service has a version that increases by one with every change; a delta
+ * carries the version it leads to, so that a watcher can tell whether it has
+ * missed a change. A snapshot carries the full membership instead of a change
+ * and is sent when a service is first watched.
+ * 
+ * @author aravind
+ * 
+ */
+public class MembershipDelta implements Serializable {
+	private static final long serialVersionUID = 2518694371720539261L;
+
+	private String serviceName;
+	private long version;
+	private boolean snapshot;
+	private List<ServerDetail> members;
+	private List<ServerDetail> added;
+	private List<String> removed;
+
+	private MembershipDelta(String serviceName, long version, boolean snapshot) {
+		this.serviceName = serviceName;
+		this.version = version;
+		this.snapshot = snapshot;
+	}
+
+	/**
+	 * Creates a delta carrying the full membership of a service.
+	 * 
+	 * @param serviceName
+	 * @param version
+	 * @param members
+	 * @return MembershipDelta
+	 */
+	public static MembershipDelta snapshot(String serviceName, long version,
+			List<ServerDetail> members) {
+		MembershipDelta delta = new MembershipDelta(serviceName, version, true);
+		delta.members = new ArrayList<ServerDetail>(members);
+		return delta;
+	}
+
+	/**
+	 * Creates a delta carrying the servers added to and removed from a
+	 * service by a single change.
+	 * 
+	 * @param serviceName
+	 * @param version
+	 * @param added
+	 * @param removed
+	 *            Server names of the removed servers.
+	 * @return MembershipDelta
+	 */
+	public static MembershipDelta change(String serviceName, long version,
+			List<ServerDetail> added, List<String> removed) {
+		MembershipDelta delta = new MembershipDelta(serviceName, version, false);
+		delta.added = new ArrayList<ServerDetail>(added);
+		delta.removed = new ArrayList<String>(removed);
+		return delta;
+	}
+
+	/**
+	 * Applies the delta to the specified membership.
+	 * 
+	 * @param currentMembers
+	 * @return The membership after the change.
+	 */
+	public List<ServerDetail> applyTo(List<ServerDetail> currentMembers) {
+		if (this.snapshot) {
+			return Collections.unmodifiableList(this.members);
+		}
+		List<ServerDetail> newMembers = new ArrayList<ServerDetail>();
+		for (ServerDetail member : currentMembers) {
+			if (!this.removed.contains(member.getServerName())
+					&& !this.isAdded(member.getServerName())) {
+				newMembers.add(member);
+			}
+		}
+		newMembers.addAll(this.added);
+		return Collections.unmodifiableList(newMembers);
+	}
+
+	private boolean isAdded(String serverName) {
+		for (ServerDetail member : this.added) {
+			if (member.getServerName().equals(serverName)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * General getters.
+	 */
+	public String getServiceName() {
+		return this.serviceName;
+	}
+
+	public long getVersion() {
+		return this.version;
+	}
+
+	public boolean isSnapshot() {
+		return this.snapshot;
+	}
+}
@@ -0,0 +1,15 @@
+package util;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Receives the membership changes of the services watched on
+ * {@link ServiceFinder}.
+ * 
+ * @author aravind
+ * 
+ */
+public interface MembershipListener extends Remote {
+	public void membershipChanged(MembershipDelta delta) throws RemoteException;
+}
@@ -0,0 +1,14 @@
+package util;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Declares the functions exported by every server to expose its metrics.
+ * 
+ * @author aravind
+ * 
+ */
+public interface MetricsInterface extends Remote {
+	public MetricsSnapshot getMetrics() throws RemoteException;
+}
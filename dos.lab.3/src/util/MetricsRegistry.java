@@ -0,0 +1,132 @@
+package util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the latency histograms, counters and gauges recorded by a server.
+ * Metrics are created on first use and are safe to record from any thread.
+ * 
+ * @author aravind
+ * 
+ */
+public class MetricsRegistry {
+
+	/**
+	 * A value sampled when a snapshot is taken, such as a queue depth.
+	 */
+	public interface Gauge {
+		public long getValue();
+	}
+
+	private String serverName;
+	private ConcurrentMap<String, LatencyHistogram> latencies;
+	private ConcurrentMap<String, AtomicLong> counters;
+	private ConcurrentMap<String, Gauge> gauges;
+
+	public MetricsRegistry(String serverName) {
+		this.serverName = serverName;
+		this.latencies = new ConcurrentHashMap<String, LatencyHistogram>();
+		this.counters = new ConcurrentHashMap<String, AtomicLong>();
+		this.gauges = new ConcurrentHashMap<String, Gauge>();
+	}
+
+	/**
+	 * Records the latency of a call that started at the specified time.
+	 * 
+	 * @param name
+	 * @param startTime
+	 *            Start time of the call, as given by {@link System#nanoTime()}.
+	 */
+	public void recordLatency(String name, long startTime) {
+		getHistogram(name).record(
+				TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime));
+	}
+
+	/**
+	 * Records a latency value.
+	 * 
+	 * @param name
+	 * @param latency
+	 *            Latency, in microseconds.
+	 */
+	public void recordValue(String name, long latency) {
+		getHistogram(name).record(latency);
+	}
+
+	/**
+	 * Increments the specified counter by 1.
+	 * 
+	 * @param name
+	 */
+	public void incrementCounter(String name) {
+		getCounter(name).incrementAndGet();
+	}
+
+	/**
+	 * Registers a gauge to be sampled on every snapshot.
+	 * 
+	 * @param name
+	 * @param gauge
+	 */
+	public void registerGauge(String name, Gauge gauge) {
+		this.gauges.put(name, gauge);
+	}
+
+	/**
+	 * Takes a snapshot of all metrics.
+	 * 
+	 * @return MetricsSnapshot
+	 */
+	public MetricsSnapshot getSnapshot() {
+		MetricsSnapshot snapshot = new MetricsSnapshot(this.serverName);
+		for (Map.Entry<String, LatencyHistogram> entry : latencies.entrySet()) {
+			snapshot.getLatencies().put(entry.getKey(),
+					entry.getValue().getSnapshot());
+		}
+		for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+			snapshot.getCounters().put(entry.getKey(), entry.getValue().get());
+		}
+		for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+			snapshot.getGauges().put(entry.getKey(),
+					entry.getValue().getValue());
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Sets the name of the server reported in snapshots.
+	 * 
+	 * @param serverName
+	 */
+	public void setServerName(String serverName) {
+		this.serverName = serverName;
+	}
+
+	private LatencyHistogram getHistogram(String name) {
+		LatencyHistogram histogram = this.latencies.get(name);
+		if (histogram == null) {
+			LatencyHistogram newHistogram = new LatencyHistogram();
+			histogram = this.latencies.putIfAbsent(name, newHistogram);
+			if (histogram == null) {
+				histogram = newHistogram;
+			}
+		}
+		return histogram;
+	}
+
+	private AtomicLong getCounter(String name) {
+		AtomicLong counter = this.counters.get(name);
+		if (counter == null) {
+			AtomicLong newCounter = new AtomicLong();
+			counter = this.counters.putIfAbsent(name, newCounter);
+			if (counter == null) {
+				counter = newCounter;
+			}
+		}
+		return counter;
+	}
+}
@@ -0,0 +1,65 @@
+package util;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A point in time copy of all metrics recorded by a server: latency snapshots
+ * per method, counters and gauges such as queue depths.
+ * 
+ * @author aravind
+ * 
+ */
+public class MetricsSnapshot implements Serializable {
+	private static final long serialVersionUID = 1945370816473470551L;
+	private String serverName;
+	private long timestamp;
+	private TreeMap<String, LatencySnapshot> latencies;
+	private TreeMap<String, Long> counters;
+	private TreeMap<String, Long> gauges;
+
+	public MetricsSnapshot(String serverName) {
+		this.serverName = serverName;
+		this.timestamp = System.currentTimeMillis();
+		this.latencies = new TreeMap<String, LatencySnapshot>();
+		this.counters = new TreeMap<String, Long>();
+		this.gauges = new TreeMap<String, Long>();
+	}
+
+	public String getServerName() {
+		return serverName;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public Map<String, LatencySnapshot> getLatencies() {
+		return latencies;
+	}
+
+	public Map<String, Long> getCounters() {
+		return counters;
+	}
+
+	public Map<String, Long> getGauges() {
+		return gauges;
+	}
+
+	/**
+	 * Prints all metrics in the snapshot.
+	 */
+	public void printMetrics() {
+		System.out.println("Metrics for " + this.serverName + ":");
+		for (Map.Entry<String, LatencySnapshot> entry : latencies.entrySet()) {
+			System.out.println("  " + entry.getKey() + " : " + entry.getValue());
+		}
+		for (Map.Entry<String, Long> entry : counters.entrySet()) {
+			System.out.println("  " + entry.getKey() + " : " + entry.getValue());
+		}
+		for (Map.Entry<String, Long> entry : gauges.entrySet()) {
+			System.out.println("  " + entry.getKey() + " : " + entry.getValue());
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package util;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Coalesces identical concurrent requests. The first caller for a key performs
+ * the request, and every caller that arrives while it is in flight waits for
+ * and shares its result instead of issuing a request of its own.
+ * 
+ * @author aravind
+ * 
+ * @param <K>
+ *            Type of the key identifying identical requests.
+ * @param <V>
+ *            Type of the result of the request.
+ */
+public class RequestCoalescer<K, V> {
+
+	private ConcurrentMap<K, FutureTask<V>> inFlightRequests;
+
+	public RequestCoalescer() {
+		this.inFlightRequests = new ConcurrentHashMap<K, FutureTask<V>>();
+	}
+
+	/**
+	 * Executes the request for the specified key, or joins a request for the
+	 * same key that is already in flight.
+	 * 
+	 * @param key
+	 * @param request
+	 * @return The result of the request.
+	 * @throws RemoteException
+	 */
+	public V execute(K key, Callable<V> request) throws RemoteException {
+		FutureTask<V> task = new FutureTask<V>(request);
+		FutureTask<V> inFlightTask = this.inFlightRequests.putIfAbsent(key,
+				task);
+		if (inFlightTask == null) {
+			inFlightTask = task;
+			try {
+				task.run();
+			} finally {
+				this.inFlightRequests.remove(key, task);
+			}
+		}
+
+		try {
+			return inFlightTask.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RemoteException) {
+				throw (RemoteException) e.getCause();
+			}
+			throw new RemoteException("Coalesced request failed.", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RemoteException(
+					"Interrupted while waiting for coalesced request.", e);
+		}
+	}
+
+	/**
+	 * @return The number of distinct requests currently in flight.
+	 */
+	public int getInFlightCount() {
+		return this.inFlightRequests.size();
+	}
+}
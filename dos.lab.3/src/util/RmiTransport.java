@@ -0,0 +1,49 @@
+package util;
+
+import java.rmi.NotBoundException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+
+import base.OlympicException;
+
+/**
+ * Transport that reaches services through Java RMI. Server objects are
+ * exported and bound in the registry on the local host, which is created if
+ * none is running.
+ * 
+ * @author aravind
+ * 
+ */
+public class RmiTransport implements Transport {
+
+	private static String JAVA_RMI_HOSTNAME_PROPERTY = "java.rmi.server.hostname";
+
+	@Override
+	public void bind(String serverName, Remote server, int port)
+			throws RemoteException, OlympicException {
+		Remote serverStub = UnicastRemoteObject.exportObject(server, 0);
+		Registry registry = null;
+		try {
+			registry = LocateRegistry.getRegistry(port);
+			registry.rebind(serverName, serverStub);
+			System.err.println("Registry Service running at "
+					+ System.getProperty(JAVA_RMI_HOSTNAME_PROPERTY) + ":"
+					+ port + ".");
+		} catch (RemoteException e) {
+			registry = new RegistryService().setupLocalRegistry(port);
+			registry.rebind(serverName, serverStub);
+			System.err.println("New Registry Service created.");
+		}
+	}
+
+	@Override
+	public <T extends Remote> T lookup(String host, int port,
+			String serverName, Class<T> type) throws RemoteException,
+			NotBoundException {
+		Registry registry = LocateRegistry.getRegistry(host, port);
+		return type.cast(registry.lookup(serverName));
+	}
+}
@@ -1,5 +1,8 @@
 package util;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
 /**
@@ -10,18 +13,29 @@ import java.io.Serializable;
  * 
  */
 public class ServerDetail implements Serializable {
-	private static final long serialVersionUID = -7853196643095509724L;
+	private static final long serialVersionUID = 3147960415527398612L;
 	private String serviceName;
 	private int PID;
 	private String serviceAddress;
 	private int servicePort;
 
+	/**
+	 * Most recent load reported by the server: the number of requests in
+	 * flight and the moving average of request latency, along with the time
+	 * the report was received, on the clock of this process. Updated in place
+	 * while the detail is being read by lookups.
+	 */
+	private volatile int inFlightRequests;
+	private volatile double averageLatency;
+	private transient volatile long loadReportTime;
+
 	public ServerDetail(String serviceName, int PID, String serviceAddress,
 			int servicePort) {
 		this.serviceName = serviceName;
 		this.PID = PID;
 		this.serviceAddress = serviceAddress;
 		this.servicePort = servicePort;
+		this.loadReportTime = 0;
 	}
 
 	public String getServiceName() {
@@ -59,4 +73,70 @@ public class ServerDetail implements Serializable {
 	public void setServicePort(int servicePort) {
 		this.servicePort = servicePort;
 	}
+
+	public int getInFlightRequests() {
+		return inFlightRequests;
+	}
+
+	public double getAverageLatency() {
+		return averageLatency;
+	}
+
+	public long getLoadReportTime() {
+		return loadReportTime;
+	}
+
+	/**
+	 * Records a load report from the server.
+	 * 
+	 * @param inFlightRequests
+	 * @param averageLatency
+	 */
+	public void updateLoad(int inFlightRequests, double averageLatency) {
+		this.inFlightRequests = inFlightRequests;
+		this.averageLatency = averageLatency;
+		this.loadReportTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Takes over the load report of another copy of the same server detail if
+	 * it is more recent.
+	 * 
+	 * @param other
+	 */
+	public void mergeLoad(ServerDetail other) {
+		if (other.loadReportTime > this.loadReportTime) {
+			this.inFlightRequests = other.inFlightRequests;
+			this.averageLatency = other.averageLatency;
+			this.loadReportTime = other.loadReportTime;
+		}
+	}
+
+	/**
+	 * Estimates the cost of sending one more request to the server, based on
+	 * the most recent load report.
+	 * 
+	 * @return The load score, lower is better.
+	 */
+	public double getLoadScore() {
+		return (this.inFlightRequests + 1) * Math.max(this.averageLatency, 1.0);
+	}
+
+	/**
+	 * Sends the load report time as the age of the report, so that the
+	 * receiving process can turn it back into a time on its own clock.
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		out.writeLong((this.loadReportTime == 0) ? -1 : Math.max(0,
+				System.currentTimeMillis() - this.loadReportTime));
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException,
+			ClassNotFoundException {
+		in.defaultReadObject();
+		long loadReportAge = in.readLong();
+		this.loadReportTime = (loadReportAge < 0) ? 0 : System
+				.currentTimeMillis() - loadReportAge;
+	}
 }
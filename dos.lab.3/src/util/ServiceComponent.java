@@ -1,10 +1,13 @@
 package util;
 
+import java.rmi.Remote;
 import java.rmi.RemoteException;
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import server.ServiceFinderInterface;
 import base.OlympicException;
@@ -15,27 +18,60 @@ import base.OlympicException;
  * @author aravind
  * 
  */
-public abstract class ServiceComponent {
+public abstract class ServiceComponent implements MembershipListener {
 
 	private static Random random;
 	private ServiceFinderInterface serviceFinderStub;
+	private ServiceFinderReplicas serviceFinderReplicas;
+	private int seenFailoverCount;
 	private String serviceFinderHost;
 	private int serviceFinderPort;
 	protected int PID;
 	protected String serviceName;
+	protected MetricsRegistry metrics;
+	private ServiceLookupCache lookupCache;
+
+	/**
+	 * Circuit breakers guarding calls to other server processes, keyed by
+	 * server name.
+	 */
+	private ConcurrentMap<String, CircuitBreaker> peerBreakers = new ConcurrentHashMap<String, CircuitBreaker>();
+	private static int PEER_FAILURE_THRESHOLD = 3;
+	private static long PEER_INITIAL_BACKOFF = 1000;
+	private static long PEER_MAX_BACKOFF = 30000;
+
+	/**
+	 * Services registered by the current process, keyed by service name. Their
+	 * leases are renewed by a single thread for all components in the JVM,
+	 * and they are deregistered when the JVM shuts down.
+	 */
+	private ConcurrentMap<String, ServerDetail> registrations = new ConcurrentHashMap<String, ServerDetail>();
+	private static Set<ServiceComponent> leaseHolders = Collections
+			.newSetFromMap(new ConcurrentHashMap<ServiceComponent, Boolean>());
+	private static boolean leaseRenewalStarted = false;
+
+	/**
+	 * Services whose membership is pushed to the current process by
+	 * {@link ServiceFinder} rather than looked up.
+	 */
+	private Set<String> watchedServices = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
-	private static String SERVICE_FINDER_NAME = "ServiceFinder";
 	protected static int JAVA_RMI_PORT;
 	protected static int DEFAULT_JAVA_RMI_PORT = 1099;
 
 	public ServiceComponent() {
+		TimeoutSocketFactory.install();
 		random = new Random();
 		this.PID = Math.abs(random.nextInt());
+		this.metrics = new MetricsRegistry(this.getServerName());
+		this.setupLookupCache();
 	}
 
 	public ServiceComponent(String serviceName, String serviceFinderHost,
 			int serviceFinderPort) {
 		this.serviceName = serviceName;
+		TimeoutSocketFactory.install();
 		try {
 			setServiceFinderAddress(serviceFinderHost, serviceFinderPort);
 		} catch (OlympicException e) {
@@ -43,10 +79,14 @@ public abstract class ServiceComponent {
 		}
 		random = new Random();
 		this.PID = Math.abs(random.nextInt());
+		this.metrics = new MetricsRegistry(this.getServerName());
+		this.setupLookupCache();
 	}
 
 	/**
-	 * Sets the service finder host used to register and lookup services.
+	 * Sets the service finder host used to register and lookup services. When
+	 * {@link ServiceFinder} is replicated, the host is a comma separated list
+	 * of replica addresses, each a host optionally followed by :port.
 	 * 
 	 * @param serviceFinderHost
 	 * @throws OlympicException
@@ -58,25 +98,54 @@ public abstract class ServiceComponent {
 		setupServiceFinderStub();
 	}
 
+	/**
+	 * Sets up the cache through which service lookups and client stubs are
+	 * resolved. Lookups that miss the cache go to {@link ServiceFinder}.
+	 */
+	private void setupLookupCache() {
+		this.lookupCache = new ServiceLookupCache(
+				new ServiceLookupCache.Resolver() {
+					@Override
+					public List<ServerDetail> resolve(String serviceName)
+							throws RemoteException {
+						return serviceFinderStub.getServices(serviceName);
+					}
+				}, this.metrics);
+	}
+
 	/**
 	 * Sets up the {@link ServiceFinder} client stub used to register and lookup
-	 * services.
+	 * services. Calls through the stub fail over between replicas.
 	 * 
 	 * @throws OlympicException
 	 */
 	private void setupServiceFinderStub() throws OlympicException {
-		Registry registry = null;
 		try {
-			registry = LocateRegistry.getRegistry(serviceFinderHost,
-					serviceFinderPort);
-			ServiceFinderInterface serviceFinderStub = (ServiceFinderInterface) registry
-					.lookup(SERVICE_FINDER_NAME);
-			this.serviceFinderStub = serviceFinderStub;
+			this.serviceFinderReplicas = new ServiceFinderReplicas(
+					serviceFinderHost, serviceFinderPort);
+			this.serviceFinderStub = this.serviceFinderReplicas.connect();
+			this.seenFailoverCount = 0;
 		} catch (Exception e) {
 			throw new OlympicException("Could not set up Service Finder Stub.");
 		}
 	}
 
+	/**
+	 * Checks whether calls to {@link ServiceFinder} have failed over to
+	 * another replica since the last check. Watches made on the failed
+	 * replica must then be made again.
+	 * 
+	 * @return True if a failover has happened since the last check.
+	 */
+	boolean checkServiceFinderFailover() {
+		int failoverCount = this.serviceFinderReplicas.getFailoverCount();
+		if (failoverCount == this.seenFailoverCount) {
+			return false;
+		}
+		this.seenFailoverCount = failoverCount;
+		return true;
+	}
+
 	/**
 	 * @return The server name for the current server process.
 	 */
@@ -84,8 +153,80 @@ public abstract class ServiceComponent {
 		return this.serviceName + this.PID;
 	}
 
+	/**
+	 * Makes the specified server object reachable by other services under the
+	 * server name of the current process.
+	 * 
+	 * @param server
+	 * @param rmiPort
+	 * @throws RemoteException
+	 * @throws OlympicException
+	 */
+	protected void bindServer(Remote server, int rmiPort)
+			throws RemoteException, OlympicException {
+		TransportProvider.getTransport().bind(this.getServerName(), server,
+				rmiPort);
+	}
+
+	/**
+	 * Retrieves a client stub for the specified server. Stubs are looked up
+	 * through the configured {@link Transport} once and cached until the
+	 * server is invalidated.
+	 * 
+	 * @param participant
+	 * @param type
+	 * @return A stub implementing the remote interface, or null if the server
+	 *         is not bound.
+	 * @throws RemoteException
+	 */
+	protected <T extends Remote> T getClientStub(ServerDetail participant,
+			Class<T> type) throws RemoteException {
+		return this.lookupCache.getClientStub(participant, type);
+	}
+
+	/**
+	 * Discards the cached stub and lookup entry of a server that failed a
+	 * call, so that the next lookup resolves to another server.
+	 * 
+	 * @param server
+	 */
+	public void invalidateServer(ServerDetail server) {
+		this.lookupCache.invalidate(server);
+	}
+
+	/**
+	 * Retrieves the circuit breaker guarding calls to the specified server.
+	 * 
+	 * @param peer
+	 * @return CircuitBreaker
+	 */
+	public CircuitBreaker getPeerBreaker(ServerDetail peer) {
+		CircuitBreaker breaker = this.peerBreakers.get(peer.getServerName());
+		if (breaker == null) {
+			CircuitBreaker newBreaker = new CircuitBreaker(
+					PEER_FAILURE_THRESHOLD, PEER_INITIAL_BACKOFF,
+					PEER_MAX_BACKOFF);
+			breaker = this.peerBreakers.putIfAbsent(peer.getServerName(),
+					newBreaker);
+			if (breaker == null) {
+				breaker = newBreaker;
+			}
+		}
+		return breaker;
+	}
+
+	/**
+	 * Returns a snapshot of the metrics recorded by the current server process.
+	 * 
+	 * @return MetricsSnapshot
+	 */
+	public MetricsSnapshot getMetrics() {
+		return this.metrics.getSnapshot();
+	}
+
 	/**
 	 * Registers a server offering a specified service on {@link ServiceFinder}
+	 * and keeps its lease renewed until the process exits.
 	 * 
 	 * @param serviceName
 	 * @param address
@@ -94,31 +235,222 @@ public abstract class ServiceComponent {
 	public void register(String serviceName, String address, int rmiPort)
 			throws RemoteException {
 		serviceFinderStub.registerService(serviceName, PID, address, rmiPort);
+		this.registrations.put(serviceName, new ServerDetail(serviceName, PID,
+				address, rmiPort));
+		leaseHolders.add(this);
+		setupLeaseRenewalThread();
+	}
+
+	/**
+	 * Removes all registrations of the current process from
+	 * {@link ServiceFinder}.
+	 */
+	public void deregister() {
+		leaseHolders.remove(this);
+		for (ServerDetail registration : this.registrations.values()) {
+			try {
+				serviceFinderStub.deregisterService(
+						registration.getServiceName(), PID);
+			} catch (RemoteException e) {
+				System.err.println("Could not deregister "
+						+ registration.getServerName() + ".");
+			}
+		}
+		this.registrations.clear();
+	}
+
+	/**
+	 * Renews the leases of all registrations of the current process. A
+	 * registration that has been evicted, for instance after a long pause, is
+	 * registered again.
+	 */
+	void renewLeases() {
+		for (ServerDetail registration : this.registrations.values()) {
+			try {
+				if (!serviceFinderStub.renewLease(
+						registration.getServiceName(), PID)) {
+					serviceFinderStub.registerService(
+							registration.getServiceName(), PID,
+							registration.getServiceAddress(),
+							registration.getServicePort());
+					this.metrics.incrementCounter("lease.reregistered");
+				}
+			} catch (RemoteException e) {
+				this.metrics.incrementCounter("lease.failed");
+				System.err.println("Could not renew lease of "
+						+ registration.getServerName() + ".");
+			}
+		}
+	}
+
+	/**
+	 * Watches the membership of the specified service, so that lookups of it
+	 * are answered from a local view kept up to date by {@link ServiceFinder}.
+	 * The current process must already be bound, as it is the listener
+	 * notified of changes.
+	 * 
+	 * @param serviceName
+	 * @throws RemoteException
+	 */
+	protected void watchService(String serviceName) throws RemoteException {
+		MembershipDelta snapshot = serviceFinderStub.watchService(serviceName,
+				this.getServerName(), this);
+		this.lookupCache.applyMembership(snapshot);
+		this.watchedServices.add(serviceName);
+		leaseHolders.add(this);
+		setupLeaseRenewalThread();
+	}
+
+	/**
+	 * Receives a membership change of a watched service. If a change has been
+	 * missed, the service is watched again to get a new snapshot.
+	 */
+	@Override
+	public void membershipChanged(MembershipDelta delta)
+			throws RemoteException {
+		if (!this.lookupCache.applyMembership(delta)) {
+			this.watchService(delta.getServiceName());
+		}
+		this.onMembershipChanged(delta.getServiceName());
+	}
+
+	/**
+	 * Called after the membership of a watched service has changed. Does
+	 * nothing by default.
+	 * 
+	 * @param serviceName
+	 */
+	protected void onMembershipChanged(String serviceName) {
+	}
+
+	/**
+	 * Watches all watched services again, replacing the local views with new
+	 * snapshots. Recovers changes that could not be pushed to the current
+	 * process.
+	 */
+	void resyncWatches() {
+		for (String serviceName : this.watchedServices) {
+			try {
+				this.watchService(serviceName);
+			} catch (RemoteException e) {
+				System.err.println("Could not watch " + serviceName + ".");
+			}
+		}
+	}
+
+	/**
+	 * @return The components of the current JVM holding registrations or
+	 *         watches.
+	 */
+	static Set<ServiceComponent> getLeaseHolders() {
+		return leaseHolders;
+	}
+
+	/**
+	 * Sets up the thread renewing the leases of all components in the JVM, and
+	 * a shutdown hook deregistering them. Both are set up only once.
+	 */
+	private static synchronized void setupLeaseRenewalThread() {
+		if (leaseRenewalStarted) {
+			return;
+		}
+		leaseRenewalStarted = true;
+		TaskExecutors.startBackgroundTask("LeaseRenewalThread",
+				new LeaseRenewer());
+		Runtime.getRuntime().addShutdownHook(
+				new Thread(new LeaseReleaser(), "LeaseReleaseThread"));
+	}
+
+	/**
+	 * Reports the current load of this server to {@link ServiceFinder}.
+	 * 
+	 * @param inFlightRequests
+	 * @param averageLatency
+	 * @throws RemoteException
+	 */
+	public void reportLoad(int inFlightRequests, double averageLatency)
+			throws RemoteException {
+		serviceFinderStub.reportLoad(serviceName, PID, inFlightRequests,
+				averageLatency);
 	}
 
 	/**
 	 * Retreives the server detail of any one server offering a specified
-	 * service.
+	 * service. The server is picked locally from the cached lookup of the
+	 * service, using the load reports it carries.
 	 * 
 	 * @param serviceName
-	 * @return
+	 * @return The server detail, or null if no server offers the service.
 	 * @throws RemoteException
 	 */
 	public ServerDetail getServerDetails(String serviceName)
 			throws RemoteException {
-		return serviceFinderStub.getService(serviceName);
+		return this.lookupCache.pickServer(serviceName);
 	}
 
 	/**
 	 * Retreives the server details of all the servers offering a specified
-	 * service.
+	 * service, from the lookup cache while its lease is valid.
 	 * 
 	 * @param serviceName
-	 * @return
+	 * @return An unmodifiable list of server details.
 	 * @throws RemoteException
 	 */
 	public List<ServerDetail> getServersDetails(String serviceName)
 			throws RemoteException {
-		return serviceFinderStub.getServices(serviceName);
+		return this.lookupCache.getServers(serviceName);
+	}
+}
+
+/**
+ * Periodically renews the leases of all components of the JVM that have
+ * registered with {@link ServiceFinder}. Every few rounds, or after calls have
+ * failed over to another replica of ServiceFinder, also resyncs the services
+ * they watch.
+ * 
+ * @author aravind
+ * 
+ */
+class LeaseRenewer implements Runnable {
+
+	private static int RENEWAL_INTERVAL = 3000;
+	private static int WATCH_RESYNC_ROUNDS = 10;
+
+	@Override
+	public void run() {
+		int round = 0;
+		while (true) {
+			try {
+				Thread.sleep(RENEWAL_INTERVAL);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+
+			boolean resync = (++round % WATCH_RESYNC_ROUNDS) == 0;
+			for (ServiceComponent component : ServiceComponent
+					.getLeaseHolders()) {
+				component.renewLeases();
+				if (component.checkServiceFinderFailover() || resync) {
+					component.resyncWatches();
+				}
+			}
+		}
+	}
+}
+
+/**
+ * Deregisters all components of the JVM when it shuts down, so that clients
+ * stop resolving them straight away instead of after their leases expire.
+ * 
+ * @author aravind
+ * 
+ */
+class LeaseReleaser implements Runnable {
+
+	@Override
+	public void run() {
+		for (ServiceComponent component : ServiceComponent.getLeaseHolders()) {
+			component.deregister();
+		}
 	}
 }
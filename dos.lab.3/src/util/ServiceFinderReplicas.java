@@ -0,0 +1,183 @@
+package util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import server.ServiceFinderInterface;
+
+/**
+ * Client side view of a replicated {@link ServiceFinder}. Calls are sent to
+ * one replica, picked at random so that clients are spread over the replicas,
+ * and fail over to the next replica when a call fails with a
+ * RemoteException. Each call is tried on every replica at most once.
+ * 
+ * @author aravind
+ * 
+ */
+public class ServiceFinderReplicas implements InvocationHandler {
+
+	private static String SERVICE_FINDER_NAME = "ServiceFinder";
+	private static String ADDRESS_SEPARATOR = ",";
+	private static String PORT_SEPARATOR = ":";
+
+	private List<String> addresses;
+	private int defaultPort;
+	private volatile int currentReplica;
+	private volatile ServiceFinderInterface currentStub;
+	private AtomicInteger failoverCount;
+
+	/**
+	 * @param addresses
+	 *            Comma separated list of replica addresses, each a host
+	 *            optionally followed by :port.
+	 * @param defaultPort
+	 *            Port of replicas whose address has none.
+	 */
+	public ServiceFinderReplicas(String addresses, int defaultPort) {
+		this.addresses = new ArrayList<String>();
+		if (addresses != null) {
+			for (String address : addresses.split(ADDRESS_SEPARATOR)) {
+				if (address.trim().length() > 0) {
+					this.addresses.add(address.trim());
+				}
+			}
+		}
+		if (this.addresses.isEmpty()) {
+			this.addresses.add(null);
+		}
+		this.defaultPort = defaultPort;
+		this.currentReplica = new Random().nextInt(this.addresses.size());
+		this.failoverCount = new AtomicInteger();
+	}
+
+	/**
+	 * Creates a stub that sends each call to a reachable replica.
+	 * 
+	 * @return ServiceFinderInterface
+	 * @throws RemoteException
+	 *             If no replica can be reached.
+	 */
+	public ServiceFinderInterface connect() throws RemoteException {
+		RemoteException failure = null;
+		for (int attempt = 0; attempt < this.addresses.size(); attempt++) {
+			int replica = this.currentReplica;
+			try {
+				this.getStub();
+				break;
+			} catch (RemoteException e) {
+				failure = e;
+				this.failover(replica);
+			}
+		}
+		if (this.currentStub == null) {
+			throw failure;
+		}
+		return (ServiceFinderInterface) Proxy.newProxyInstance(
+				ServiceFinderInterface.class.getClassLoader(),
+				new Class<?>[] { ServiceFinderInterface.class }, this);
+	}
+
+	/**
+	 * @return The number of times calls have failed over to another replica.
+	 */
+	public int getFailoverCount() {
+		return this.failoverCount.get();
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args)
+			throws Throwable {
+		if (method.getDeclaringClass() == Object.class) {
+			return method.invoke(this, args);
+		}
+		Throwable failure = null;
+		for (int attempt = 0; attempt < this.addresses.size(); attempt++) {
+			int replica = this.currentReplica;
+			try {
+				return method.invoke(this.getStub(), args);
+			} catch (InvocationTargetException e) {
+				if (!(e.getCause() instanceof RemoteException)) {
+					throw e.getCause();
+				}
+				failure = e.getCause();
+			} catch (RemoteException e) {
+				failure = e;
+			}
+			this.failover(replica);
+		}
+		throw failure;
+	}
+
+	/**
+	 * Utility function to retrieve the stub of the current replica, looking it
+	 * up after a failover.
+	 */
+	private synchronized ServiceFinderInterface getStub()
+			throws RemoteException {
+		if (this.currentStub != null) {
+			return this.currentStub;
+		}
+		String address = this.addresses.get(this.currentReplica);
+		try {
+			this.currentStub = TransportProvider.getTransport().lookup(
+					getHost(address), getPort(address, this.defaultPort),
+					SERVICE_FINDER_NAME, ServiceFinderInterface.class);
+			return this.currentStub;
+		} catch (NotBoundException e) {
+			throw new RemoteException("ServiceFinder is not bound at "
+					+ address + ".", e);
+		}
+	}
+
+	/**
+	 * Utility function to move on to the replica after the specified one,
+	 * unless another caller has already done so.
+	 */
+	private synchronized void failover(int failedReplica) {
+		if (failedReplica != this.currentReplica) {
+			return;
+		}
+		this.currentReplica = (failedReplica + 1) % this.addresses.size();
+		this.currentStub = null;
+		this.failoverCount.incrementAndGet();
+		System.err.println("ServiceFinder at "
+				+ this.addresses.get(failedReplica) + " failed. Trying "
+				+ this.addresses.get(this.currentReplica) + ".");
+	}
+
+	/**
+	 * @param address
+	 *            An address of the form host[:port].
+	 * @return The host of the address.
+	 */
+	public static String getHost(String address) {
+		if (address == null) {
+			return null;
+		}
+		int separator = address.lastIndexOf(PORT_SEPARATOR);
+		return (separator < 0) ? address : address.substring(0, separator);
+	}
+
+	/**
+	 * @param address
+	 *            An address of the form host[:port].
+	 * @param defaultPort
+	 * @return The port of the address, or the default port if it has none.
+	 */
+	public static int getPort(String address, int defaultPort) {
+		if (address == null) {
+			return defaultPort;
+		}
+		int separator = address.lastIndexOf(PORT_SEPARATOR);
+		return (separator < 0) ? defaultPort : Integer.parseInt(address
+				.substring(separator + 1));
+	}
+}
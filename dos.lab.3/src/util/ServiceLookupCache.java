@@ -0,0 +1,350 @@
+package util;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Caches the results of service lookups so that discovery is not on the path
+ * of every request. The servers offering a service are held under a lease that
+ * expires after a fixed time to live; a lookup that finds the lease close to
+ * expiry refreshes it in the background while still answering from the cache,
+ * so callers only wait for {@link ServiceFinder} on the first lookup of a
+ * service or after a lease has fully expired. Concurrent lookups that miss
+ * share a single request. The load reports of the servers are refreshed the
+ * same way, well within the time after which a report is no longer used.
+ * 
+ * A watched service is kept up to date by the membership changes pushed by
+ * {@link ServiceFinder} instead, see {@link #applyMembership(MembershipDelta)};
+ * its lease does not expire, unless a server has been invalidated.
+ * 
+ * Client stubs are cached by server name as well. A server that fails a call
+ * should be passed to {@link #invalidate(ServerDetail)}, which drops its stub
+ * and removes it from the cached servers of its service until the next
+ * refresh. A watched service is refreshed by a lookup once a lease duration
+ * has passed after the invalidation, so that a server which has recovered
+ * gets traffic again without waiting for a membership change.
+ * 
+ * @author aravind
+ * 
+ */
+public class ServiceLookupCache {
+
+	private static long DEFAULT_LEASE_DURATION = 5000;
+	private static long DEFAULT_REFRESH_AHEAD = 1000;
+	private static long LOAD_REPORT_TIMEOUT = 5000;
+	private static long LOAD_REFRESH_INTERVAL = 2000;
+
+	/**
+	 * Performs the actual lookup of the servers offering a service.
+	 */
+	public interface Resolver {
+		public List<ServerDetail> resolve(String serviceName)
+				throws RemoteException;
+	}
+
+	private Resolver resolver;
+	private long leaseDuration;
+	private long refreshAhead;
+	private MetricsRegistry metrics;
+	private Random random;
+	private ConcurrentMap<String, ServiceLease> leases;
+	private ConcurrentMap<String, Remote> clientStubs;
+	private RequestCoalescer<String, List<ServerDetail>> lookups;
+	private ExecutorService refresher;
+
+	public ServiceLookupCache(Resolver resolver, MetricsRegistry metrics) {
+		this(resolver, DEFAULT_LEASE_DURATION, DEFAULT_REFRESH_AHEAD, metrics);
+	}
+
+	/**
+	 * @param resolver
+	 * @param leaseDuration
+	 *            Time in milliseconds for which a lookup result is used.
+	 * @param refreshAhead
+	 *            Time in milliseconds before expiry from which a lookup
+	 *            triggers a background refresh of the lease.
+	 * @param metrics
+	 */
+	public ServiceLookupCache(Resolver resolver, long leaseDuration,
+			long refreshAhead, MetricsRegistry metrics) {
+		this.resolver = resolver;
+		this.leaseDuration = leaseDuration;
+		this.refreshAhead = refreshAhead;
+		this.metrics = metrics;
+		this.random = new Random();
+		this.leases = new ConcurrentHashMap<String, ServiceLease>();
+		this.clientStubs = new ConcurrentHashMap<String, Remote>();
+		this.lookups = new RequestCoalescer<String, List<ServerDetail>>();
+		this.refresher = TaskExecutors.newTaskExecutor("LookupRefresh");
+	}
+
+	/**
+	 * Retrieves the servers offering the specified service, from the cache if
+	 * the lease on them is still valid.
+	 * 
+	 * @param serviceName
+	 * @return An unmodifiable list of server details.
+	 * @throws RemoteException
+	 */
+	public List<ServerDetail> getServers(String serviceName)
+			throws RemoteException {
+		ServiceLease lease = this.leases.get(serviceName);
+		long now = System.currentTimeMillis();
+		if (lease != null && now < lease.expiryTime) {
+			this.metrics.incrementCounter("lookup.hit");
+			if ((now >= lease.expiryTime - this.refreshAhead || now
+					- lease.loadTime >= LOAD_REFRESH_INTERVAL)
+					&& lease.refreshing.compareAndSet(false, true)) {
+				this.refreshInBackground(serviceName, lease);
+			}
+			return lease.servers;
+		}
+		this.metrics.incrementCounter("lookup.miss");
+		return this.lookup(serviceName);
+	}
+
+	/**
+	 * Picks one server offering the specified service. Two of the cached
+	 * servers are picked at random and the less loaded one is returned (power
+	 * of two choices), unless either has not reported its load recently.
+	 * 
+	 * @param serviceName
+	 * @return The server detail, or null if no server offers the service.
+	 * @throws RemoteException
+	 */
+	public ServerDetail pickServer(String serviceName) throws RemoteException {
+		List<ServerDetail> servers = this.getServers(serviceName);
+		if (servers.isEmpty()) {
+			return null;
+		}
+		int num = this.random.nextInt(servers.size());
+		ServerDetail pickedServer = servers.get(num);
+		if (servers.size() > 1) {
+			int otherNum = this.random.nextInt(servers.size() - 1);
+			if (otherNum >= num) {
+				otherNum++;
+			}
+			ServerDetail otherServer = servers.get(otherNum);
+			if (hasRecentLoad(pickedServer) && hasRecentLoad(otherServer)
+					&& otherServer.getLoadScore() < pickedServer.getLoadScore()) {
+				pickedServer = otherServer;
+			}
+		}
+		return pickedServer;
+	}
+
+	/**
+	 * Retrieves the cached client stub for the specified server, looking it
+	 * up through the configured {@link Transport} if there is none.
+	 * 
+	 * @param server
+	 * @param type
+	 * @return A stub implementing the remote interface, or null if the server
+	 *         is not bound.
+	 * @throws RemoteException
+	 */
+	public <T extends Remote> T getClientStub(ServerDetail server, Class<T> type)
+			throws RemoteException {
+		Remote stub = this.clientStubs.get(server.getServerName());
+		if (type.isInstance(stub)) {
+			return type.cast(stub);
+		}
+		T newStub = TransportProvider.getClientStub(server, type);
+		if (newStub != null) {
+			this.clientStubs.put(server.getServerName(), newStub);
+		}
+		return newStub;
+	}
+
+	/**
+	 * Applies a membership change pushed by {@link ServiceFinder} to the
+	 * cached servers of a watched service. Changes older than the cached
+	 * membership are ignored, as are changes to a service whose snapshot has
+	 * not been applied yet. A snapshot is always applied, as versions are
+	 * only comparable between changes from the same replica of ServiceFinder
+	 * and a snapshot may come from another one after a failover.
+	 * 
+	 * @param delta
+	 * @return False if a change has been missed, in which case the service
+	 *         must be watched again to get a new snapshot.
+	 */
+	public synchronized boolean applyMembership(MembershipDelta delta) {
+		ServiceLease lease = this.leases.get(delta.getServiceName());
+		boolean watched = lease != null && lease.watched;
+		if (!delta.isSnapshot()) {
+			if (!watched || delta.getVersion() <= lease.version) {
+				return true;
+			}
+			if (delta.getVersion() > lease.version + 1) {
+				this.metrics.incrementCounter("membership.gap");
+				return false;
+			}
+		}
+		List<ServerDetail> currentServers = (lease == null) ? Collections
+				.<ServerDetail> emptyList() : lease.servers;
+		long expiryTime = (delta.isSnapshot() || !watched) ? Long.MAX_VALUE
+				: lease.expiryTime;
+		ServiceLease newLease = new ServiceLease(delta.applyTo(currentServers),
+				expiryTime, delta.getVersion(), true);
+		if (!delta.isSnapshot() && watched) {
+			newLease.loadTime = lease.loadTime;
+		}
+		this.leases.put(delta.getServiceName(), newLease);
+		this.metrics.incrementCounter("membership.applied");
+		return true;
+	}
+
+	/**
+	 * Drops the cached stub of a server that failed a call and removes the
+	 * server from the cached servers of its service, so that lookups pick
+	 * other servers until the lease is refreshed. The lease of a watched
+	 * service is made to expire after a lease duration, so that the removal
+	 * does not last until the next membership snapshot.
+	 * 
+	 * @param server
+	 */
+	public void invalidate(ServerDetail server) {
+		this.clientStubs.remove(server.getServerName());
+		while (true) {
+			ServiceLease lease = this.leases.get(server.getServiceName());
+			if (lease == null) {
+				return;
+			}
+			List<ServerDetail> remaining = new ArrayList<ServerDetail>();
+			for (ServerDetail curServer : lease.servers) {
+				if (!curServer.getServerName().equals(server.getServerName())) {
+					remaining.add(curServer);
+				}
+			}
+			if (remaining.size() == lease.servers.size()) {
+				return;
+			}
+			long expiryTime = lease.watched ? Math.min(lease.expiryTime,
+					System.currentTimeMillis() + this.leaseDuration)
+					: lease.expiryTime;
+			boolean replaced = (remaining.isEmpty() && !lease.watched) ? this.leases
+					.remove(server.getServiceName(), lease) : this.leases
+					.replace(server.getServiceName(), lease, new ServiceLease(
+							Collections.unmodifiableList(remaining),
+							expiryTime, lease.version, lease.watched));
+			if (replaced) {
+				this.metrics.incrementCounter("lookup.invalidated");
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Looks up the servers offering the specified service and leases the
+	 * result. Lookups that find no server are not cached, so that a service
+	 * is found as soon as it registers.
+	 */
+	private List<ServerDetail> lookup(final String serviceName)
+			throws RemoteException {
+		return this.lookups.execute(serviceName,
+				new Callable<List<ServerDetail>>() {
+					@Override
+					public List<ServerDetail> call() throws RemoteException {
+						long startTime = System.nanoTime();
+						List<ServerDetail> servers = Collections
+								.unmodifiableList(new ArrayList<ServerDetail>(
+										resolver.resolve(serviceName)));
+						metrics.recordLatency("lookup", startTime);
+						storeLookup(serviceName, servers);
+						return servers;
+					}
+				});
+	}
+
+	/**
+	 * Leases the result of a lookup, unless the service has started being
+	 * watched in the meantime. The lease of a watched service is only
+	 * replaced when it is due for a refresh after an invalidation, and then
+	 * stops expiring again; otherwise only the load reports of its servers
+	 * are taken from the lookup.
+	 */
+	private synchronized void storeLookup(String serviceName,
+			List<ServerDetail> servers) {
+		ServiceLease lease = this.leases.get(serviceName);
+		if (lease != null && lease.watched) {
+			if (lease.expiryTime != Long.MAX_VALUE) {
+				this.leases.put(serviceName, new ServiceLease(servers,
+						Long.MAX_VALUE, lease.version, true));
+				return;
+			}
+			for (ServerDetail cachedServer : lease.servers) {
+				for (ServerDetail server : servers) {
+					if (server.getServerName().equals(
+							cachedServer.getServerName())) {
+						cachedServer.mergeLoad(server);
+					}
+				}
+			}
+			this.leases.put(serviceName, new ServiceLease(lease.servers,
+					lease.expiryTime, lease.version, true));
+			return;
+		}
+		if (servers.isEmpty()) {
+			this.leases.remove(serviceName);
+		} else {
+			this.leases.put(serviceName, new ServiceLease(servers,
+					System.currentTimeMillis() + this.leaseDuration, 0, false));
+		}
+	}
+
+	private void refreshInBackground(final String serviceName,
+			final ServiceLease lease) {
+		this.metrics.incrementCounter("lookup.refresh");
+		this.refresher.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					lookup(serviceName);
+				} catch (RemoteException e) {
+					lease.refreshing.set(false);
+					System.err.println("Could not refresh lookup of "
+							+ serviceName + ".");
+				}
+			}
+		});
+	}
+
+	private static boolean hasRecentLoad(ServerDetail server) {
+		return (System.currentTimeMillis() - server.getLoadReportTime()) < LOAD_REPORT_TIMEOUT;
+	}
+
+	/**
+	 * The servers offering a service and the time until which they are used
+	 * without a new lookup. The lease of a watched service carries the version
+	 * of the membership it reflects, and only expires after one of its
+	 * servers has been invalidated. The load time is the time the load
+	 * reports of the servers were last fetched.
+	 */
+	private static class ServiceLease {
+		private List<ServerDetail> servers;
+		private long expiryTime;
+		private long version;
+		private boolean watched;
+		private long loadTime;
+		private AtomicBoolean refreshing;
+
+		public ServiceLease(List<ServerDetail> servers, long expiryTime,
+				long version, boolean watched) {
+			this.servers = servers;
+			this.expiryTime = expiryTime;
+			this.version = version;
+			this.watched = watched;
+			this.loadTime = System.currentTimeMillis();
+			this.refreshing = new AtomicBoolean(false);
+		}
+	}
+}
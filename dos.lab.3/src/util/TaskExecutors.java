@@ -0,0 +1,99 @@
+package util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executors used for short lived and blocking tasks such as
+ * pushes to subscribers, polling and simulated clients, and the threads of
+ * long running background loops. Each task runs on a
+ * virtual thread when the JVM supports them, so tens of thousands of tasks do
+ * not need as many OS threads. On older JVMs, falls back to a cached pool of
+ * daemon platform threads.
+ * 
+ * @author aravind
+ * 
+ */
+public class TaskExecutors {
+
+	private static String VIRTUAL_THREAD_BUILDER_CLASS = "java.lang.Thread$Builder";
+
+	/**
+	 * Creates an executor that runs each task on its own thread.
+	 * 
+	 * @param name
+	 *            Prefix for the names of the threads of the executor.
+	 * @return ExecutorService
+	 */
+	public static ExecutorService newTaskExecutor(String name) {
+		ThreadFactory virtualThreadFactory = newVirtualThreadFactory(name);
+		if (virtualThreadFactory != null) {
+			try {
+				Method newThreadPerTaskExecutor = Executors.class.getMethod(
+						"newThreadPerTaskExecutor", ThreadFactory.class);
+				return (ExecutorService) newThreadPerTaskExecutor.invoke(null,
+						virtualThreadFactory);
+			} catch (Exception e) {
+				// Fall back to platform threads.
+			}
+		}
+		return Executors.newCachedThreadPool(new PlatformThreadFactory(name));
+	}
+
+	/**
+	 * Starts a long running background task, such as a periodic loop, on its
+	 * own thread of a new task executor. Like all threads of task executors,
+	 * the thread does not keep the JVM alive.
+	 * 
+	 * @param name
+	 *            Name of the thread of the task.
+	 * @param task
+	 */
+	public static void startBackgroundTask(String name, Runnable task) {
+		newTaskExecutor(name).execute(task);
+	}
+
+	/**
+	 * Looks up a factory of named virtual threads by reflection, so that this
+	 * class still loads on JVMs without virtual threads.
+	 * 
+	 * @param name
+	 * @return ThreadFactory, or null if virtual threads are not available.
+	 */
+	private static ThreadFactory newVirtualThreadFactory(String name) {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderClass = Class.forName(VIRTUAL_THREAD_BUILDER_CLASS);
+			builder = builderClass.getMethod("name", String.class, long.class)
+					.invoke(builder, name + "-", 0L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(
+					builder);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Creates named daemon platform threads, matching virtual threads which
+	 * are always daemon threads.
+	 */
+	private static class PlatformThreadFactory implements ThreadFactory {
+		private String name;
+		private AtomicInteger threadCount = new AtomicInteger();
+
+		public PlatformThreadFactory(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public Thread newThread(Runnable task) {
+			Thread thread = new Thread(task, this.name + "-"
+					+ this.threadCount.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
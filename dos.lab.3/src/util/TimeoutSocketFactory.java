@@ -0,0 +1,74 @@
+package util;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.rmi.server.RMISocketFactory;
+
+/**
+ * RMI socket factory that applies connect and read timeouts to every outgoing
+ * RMI connection made by the process, so that a hung peer makes a call fail
+ * instead of stalling it indefinitely. The same timeouts apply to every
+ * destination; calls that legitimately take longer are made asynchronously
+ * rather than over a longer timeout.
+ * 
+ * @author aravind
+ * 
+ */
+public class TimeoutSocketFactory extends RMISocketFactory {
+
+	private static int DEFAULT_CONNECT_TIMEOUT = 2000;
+	private static int DEFAULT_READ_TIMEOUT = 10000;
+	private static TimeoutSocketFactory installedFactory;
+
+	private int connectTimeout;
+	private int readTimeout;
+
+	public TimeoutSocketFactory(int connectTimeout, int readTimeout) {
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+	}
+
+	/**
+	 * Installs the timeout socket factory as the RMI socket factory of the
+	 * process, unless it has been installed already.
+	 * 
+	 * @return The installed factory.
+	 */
+	public static synchronized TimeoutSocketFactory install() {
+		if (installedFactory == null) {
+			TimeoutSocketFactory factory = new TimeoutSocketFactory(
+					DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+			try {
+				RMISocketFactory.setSocketFactory(factory);
+				installedFactory = factory;
+			} catch (IOException e) {
+				System.err.println("Could not install RMI socket factory: "
+						+ e.getMessage());
+				return factory;
+			}
+		}
+		return installedFactory;
+	}
+
+	@Override
+	public Socket createSocket(String host, int port) throws IOException {
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(host, port),
+					this.connectTimeout);
+			socket.setSoTimeout(this.readTimeout);
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+		return socket;
+	}
+
+	@Override
+	public ServerSocket createServerSocket(int port) throws IOException {
+		return RMISocketFactory.getDefaultSocketFactory().createServerSocket(
+				port);
+	}
+}
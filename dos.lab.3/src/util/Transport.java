@@ -0,0 +1,49 @@
+package util;
+
+import java.rmi.NotBoundException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+import base.OlympicException;
+
+/**
+ * Hides how a remote interface is reached. Services bind their server objects
+ * and look up the stubs of other services through a transport instead of
+ * talking to the RMI registry directly, so that the same service code can run
+ * over RMI or entirely within one JVM.
+ * 
+ * @author aravind
+ * 
+ */
+public interface Transport {
+
+	/**
+	 * Makes a server object reachable under the specified name.
+	 * 
+	 * @param serverName
+	 * @param server
+	 * @param port
+	 *            Port of the registry on the local host.
+	 * @throws RemoteException
+	 * @throws OlympicException
+	 */
+	public void bind(String serverName, Remote server, int port)
+			throws RemoteException, OlympicException;
+
+	/**
+	 * Returns a stub for the server bound under the specified name at the
+	 * specified host.
+	 * 
+	 * @param host
+	 * @param port
+	 * @param serverName
+	 * @param type
+	 *            The remote interface of the server.
+	 * @return A stub implementing the remote interface.
+	 * @throws RemoteException
+	 * @throws NotBoundException
+	 */
+	public <T extends Remote> T lookup(String host, int port,
+			String serverName, Class<T> type) throws RemoteException,
+			NotBoundException;
+}
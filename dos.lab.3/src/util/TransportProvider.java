@@ -0,0 +1,63 @@
+package util;
+
+import java.rmi.NotBoundException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Provides the {@link Transport} used by all services in the current JVM. RMI
+ * is used unless the olympics.transport system property is set to "direct",
+ * or another transport is installed with {@link #setTransport(Transport)}
+ * before any service starts.
+ * 
+ * @author aravind
+ * 
+ */
+public class TransportProvider {
+
+	private static String TRANSPORT_PROPERTY = "olympics.transport";
+	private static String DIRECT_TRANSPORT = "direct";
+
+	private static volatile Transport transport;
+
+	/**
+	 * @return The transport used in the current JVM.
+	 */
+	public static Transport getTransport() {
+		if (transport == null) {
+			synchronized (TransportProvider.class) {
+				if (transport == null) {
+					transport = DIRECT_TRANSPORT.equalsIgnoreCase(System
+							.getProperty(TRANSPORT_PROPERTY)) ? new DirectTransport()
+							: new RmiTransport();
+				}
+			}
+		}
+		return transport;
+	}
+
+	public static void setTransport(Transport newTransport) {
+		transport = newTransport;
+	}
+
+	/**
+	 * Returns a stub for the specified server, or null if it is not bound.
+	 * 
+	 * @param participant
+	 * @param type
+	 *            The remote interface of the server.
+	 * @return A stub implementing the remote interface.
+	 * @throws RemoteException
+	 */
+	public static <T extends Remote> T getClientStub(ServerDetail participant,
+			Class<T> type) throws RemoteException {
+		try {
+			return getTransport().lookup(participant.getServiceAddress(),
+					participant.getServicePort(), participant.getServerName(),
+					type);
+		} catch (NotBoundException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import base.EventUpdate;
+
+/**
+ * Tracks the highest sequence number applied for each source, event and kind
+ * of update, so that duplicate deliveries of an update are ignored and an
+ * update never overwrites a newer one of the same event. Updates without a
+ * source are always considered new.
+ * 
+ * @author aravind
+ * 
+ */
+public class UpdateSequencer {
+
+	private Map<String, Long> appliedSequenceNumbers;
+
+	public UpdateSequencer() {
+		this.appliedSequenceNumbers = new HashMap<String, Long>();
+	}
+
+	/**
+	 * @param update
+	 * @return True if no update with the same or a higher sequence number has
+	 *         been applied.
+	 */
+	public synchronized boolean isNew(EventUpdate update) {
+		if (update.getSourceID() == null) {
+			return true;
+		}
+		Long applied = this.appliedSequenceNumbers.get(getKey(update));
+		return applied == null || update.getSequenceNumber() > applied;
+	}
+
+	/**
+	 * Records that the specified update has been applied.
+	 * 
+	 * @param update
+	 */
+	public synchronized void markApplied(EventUpdate update) {
+		if (update.getSourceID() == null) {
+			return;
+		}
+		String key = getKey(update);
+		Long applied = this.appliedSequenceNumbers.get(key);
+		if (applied == null || update.getSequenceNumber() > applied) {
+			this.appliedSequenceNumbers.put(key, update.getSequenceNumber());
+		}
+	}
+
+	/**
+	 * Checks whether the specified update is new and, if so, records it as
+	 * applied.
+	 * 
+	 * @param update
+	 * @return True if the update is new.
+	 */
+	public synchronized boolean tryApply(EventUpdate update) {
+		if (!this.isNew(update)) {
+			return false;
+		}
+		this.markApplied(update);
+		return true;
+	}
+
+	private static String getKey(EventUpdate update) {
+		return update.getSourceID() + ":" + update.getEventName() + ":"
+				+ (update.isResultUpdate() ? "results" : "scores");
+	}
+}